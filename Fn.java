@@ -1,9 +1,69 @@
 package jfnlite;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.lang.UnsupportedOperationException;
 import java.util.List;
+import java.util.Queue;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.lang.reflect.Array;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 public class Fn {
 
@@ -49,11 +109,210 @@ public class Fn {
 		public void accept(T t, U u);
 	}
 
+	/**
+	 * Represents an Iterable whose elements can be divided into parts, so that each part can be iterated by a different thread.
+	 * This is the Iterable counterpart of Spliterator in Java 8 (the characteristics take the same values), but trySplit does not
+	 * consume this object: the returned parts cover all its elements, and this Splittable can still be iterated as a whole.
+	 */
+	public static interface Splittable<T> extends Iterable<T> {
+		/**
+		 * Characteristic value signifying that the elements have a defined encounter order.
+		 */
+		public static final int ORDERED = 0x00000010;
+
+		/**
+		 * Characteristic value signifying that estimateSize() is the exact number of elements.
+		 */
+		public static final int SIZED = 0x00000040;
+
+		/**
+		 * Characteristic value signifying that no element is null.
+		 */
+		public static final int NONNULL = 0x00000100;
+
+		/**
+		 * Characteristic value signifying that all the parts returned by trySplit() will be SIZED and SUBSIZED.
+		 */
+		public static final int SUBSIZED = 0x00004000;
+
+		/**
+		 * Divides the elements into two or more parts whose concatenation, in order, yields the same elements as this Splittable.
+		 * 
+		 * @return	the parts, or null if the elements cannot be divided
+		 */
+		public List<Splittable<T>> trySplit();
+
+		/**
+		 * Returns an estimate of the number of elements, or Long.MAX_VALUE if it is unknown or too expensive to compute.
+		 */
+		public long estimateSize();
+
+		/**
+		 * Returns the set of characteristics of this Splittable, as a bitwise OR of ORDERED, SIZED, NONNULL and SUBSIZED.
+		 */
+		public int characteristics();
+	}
+
+	/**
+	 * Writes objects to a binary stream and reads them back, for the operations which spill elements to disk.
+	 * The read method must read exactly the bytes written by the write method for the same object.
+	 */
+	public static interface Serializer<T> {
+		public void write(T t, DataOutput out) throws IOException;
+		public T read(DataInput in) throws IOException;
+	}
+
+	/**
+	 * A destination of the elements of a pipeline, which writes them through a buffer.
+	 * 
+	 * accept buffers the element and throws an UncheckedIOException if it has to write the buffer and it fails,
+	 * flush writes the buffered elements, and close flushes them and closes the destination.
+	 */
+	public static interface Sink<T> extends Consumer<T>, Flushable, Closeable {
+		public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	}
+
+	/**
+	 * Wraps an IOException thrown while iterating, since the methods of Iterator cannot throw checked exceptions.
+	 * This is the counterpart of java.io.UncheckedIOException in Java 8.
+	 */
+	public static class UncheckedIOException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public UncheckedIOException(final IOException cause) {
+			super(cause);
+		}
+
+		public UncheckedIOException(final String message, final IOException cause) {
+			super(message, cause);
+		}
+
+		public IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	/**
+	 * Implemented by the iterables created by jfnlite which can push all their elements to a Consumer (internal iteration),
+	 * so that each stage calls the consumer of the next one directly instead of going through hasNext() and next() of each stage.
+	 */
+	private static interface Pushable<T> {
+		public void push(Consumer<T> consumer);
+	}
+
+	/**
+	 * An iterator over int values, which are returned without boxing them.
+	 */
+	public static interface IntIterator {
+		public boolean hasNext();
+		public int nextInt();
+	}
+
+	/**
+	 * Represents an operation on a single int-valued operand that produces an int-valued result. This is the primitive type specialization of Function for int.
+	 */
+	public static interface IntUnaryOperator {
+		public int applyAsInt(int operand);
+	}
+
+	/**
+	 * Represents an operation upon two int-valued operands and producing an int-valued result. This is the primitive type specialization of BiFunction for int.
+	 */
+	public static interface IntBinaryOperator {
+		public int applyAsInt(int left, int right);
+	}
+
+	/**
+	 * Represents a predicate (boolean-valued function) of one int-valued argument. This is the int-consuming primitive type specialization of Predicate.
+	 */
+	public static interface IntPredicate {
+		public boolean test(int value);
+	}
+
+	/**
+	 * Represents a function that produces an int-valued result. This is the int-producing primitive specialization for Function.
+	 */
+	public static interface ToIntFunction<T> {
+		public int applyAsInt(T value);
+	}
+
+	/**
+	 * An iterator over long values, which are returned without boxing them.
+	 */
+	public static interface LongIterator {
+		public boolean hasNext();
+		public long nextLong();
+	}
+
+	/**
+	 * Represents an operation on a single long-valued operand that produces a long-valued result. This is the primitive type specialization of Function for long.
+	 */
+	public static interface LongUnaryOperator {
+		public long applyAsLong(long operand);
+	}
+
+	/**
+	 * Represents an operation upon two long-valued operands and producing a long-valued result. This is the primitive type specialization of BiFunction for long.
+	 */
+	public static interface LongBinaryOperator {
+		public long applyAsLong(long left, long right);
+	}
+
+	/**
+	 * Represents a predicate (boolean-valued function) of one long-valued argument. This is the long-consuming primitive type specialization of Predicate.
+	 */
+	public static interface LongPredicate {
+		public boolean test(long value);
+	}
+
+	/**
+	 * Represents a function that produces a long-valued result. This is the long-producing primitive specialization for Function.
+	 */
+	public static interface ToLongFunction<T> {
+		public long applyAsLong(T value);
+	}
+
+	/**
+	 * An iterator over double values, which are returned without boxing them.
+	 */
+	public static interface DoubleIterator {
+		public boolean hasNext();
+		public double nextDouble();
+	}
+
+	/**
+	 * Represents an operation on a single double-valued operand that produces a double-valued result. This is the primitive type specialization of Function for double.
+	 */
+	public static interface DoubleUnaryOperator {
+		public double applyAsDouble(double operand);
+	}
+
+	/**
+	 * Represents an operation upon two double-valued operands and producing a double-valued result. This is the primitive type specialization of BiFunction for double.
+	 */
+	public static interface DoubleBinaryOperator {
+		public double applyAsDouble(double left, double right);
+	}
+
+	/**
+	 * Represents a predicate (boolean-valued function) of one double-valued argument. This is the double-consuming primitive type specialization of Predicate.
+	 */
+	public static interface DoublePredicate {
+		public boolean test(double value);
+	}
+
+	/**
+	 * Represents a function that produces a double-valued result. This is the double-producing primitive specialization for Function.
+	 */
+	public static interface ToDoubleFunction<T> {
+		public double applyAsDouble(T value);
+	}
+
 	/**
 	 * Returns an iterator consisting of the results of applying the given function to the elements of a given iterator.
 	 */
 	public static <T,R> Iterator<R> map(final Iterator<T> iterator, final Function<T,R> f) {
-		return new Iterator<R>() {
+		return new StageIterator<R>(iterator) {
 			public R next() { return f.apply((iterator.next())); };
 			public boolean hasNext() { return iterator.hasNext(); };
 			public void remove() { iterator.remove(); };
@@ -64,9 +323,184 @@ public class Fn {
 	 * Returns an iterable consisting of the results of applying the given function to the elements of a given iterable.
 	 */
 	public static <T,R> Iterable<R> map(final Iterable<T> iterable, final Function<T,R> f) {
-		return new Iterable<R>(){
-			public Iterator<R> iterator() { return map(iterable.iterator(), f); }
+		return new MapIterable<T,R>(iterable, f);
+	}
+
+	/**
+	 * Returns an iterator consisting of the results of applying the given function to the elements of a given iterator,
+	 * where the function is applied by the threads of the given executor.
+	 * 
+	 * Elements are read from the source iterator by the thread consuming the returned iterator, which keeps up to maxInFlight
+	 * of them submitted to the executor ahead of the current one, so memory stays bounded whatever the size of the source.
+	 * The results are returned in the order of the source elements. If the function throws an exception for an element,
+	 * the exception is thrown by the call to next() which would have returned its result.
+	 * 
+	 * @param	iterator	the source elements
+	 * @param	f			the function to apply to each element, which must be safe to call from several threads at once
+	 * @param	executor	the executor applying the function
+	 * @param	maxInFlight	the maximum number of elements submitted to the executor whose result has not been returned yet
+	 * @return				the newly created Iterator object
+	 */
+	public static <T,R> Iterator<R> parallelMap(final Iterator<T> iterator, final Function<T,R> f, final Executor executor, final int maxInFlight) {
+		if(maxInFlight < 1) throw(new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight));
+		return new StageIterator<R>(iterator) {
+			private final Queue<FutureTask<R>> inFlight = new ArrayDeque<FutureTask<R>>(maxInFlight);
+			public R next() {
+				if(this.hasNext()) {
+					return getResult(inFlight.remove());
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				while((inFlight.size() < maxInFlight) && iterator.hasNext()) {
+					final T element = iterator.next();
+					FutureTask<R> task = new FutureTask<R>(new Callable<R>() {
+						public R call() {
+							return f.apply(element);
+						};
+					});
+					inFlight.add(task);
+					executor.execute(task);
+				}
+				return !inFlight.isEmpty();
+			};
+			public void remove() { throw(new UnsupportedOperationException()); };
+		};
+	}
+
+	/**
+	 * Returns an iterable consisting of the results of applying the given function to the elements of a given iterable,
+	 * where the function is applied by the threads of the given executor, see parallelMap(Iterator, Function, Executor, int)
+	 */
+	public static <T,R> Iterable<R> parallelMap(final Iterable<T> iterable, final Function<T,R> f, final Executor executor, final int maxInFlight) {
+		return new Iterable<R>() {
+			public Iterator<R> iterator() { return parallelMap(iterable.iterator(), f, executor, maxInFlight); }
+		};
+	}
+
+	/**
+	 * Returns an iterator consisting of the results of applying the given function to the elements of a given iterator,
+	 * where the function is applied by the threads of the given executor, and the results are returned as soon as they are computed.
+	 * 
+	 * This is the unordered counterpart of parallelMap(Iterator, Function, Executor, int): it has no reorder buffer, so a slow element
+	 * does not hold back the results of the elements submitted after it. Up to maxInFlight elements are submitted to the executor,
+	 * and their results are handed off to the consuming thread through a queue of the same bounded capacity.
+	 * 
+	 * @param	iterator	the source elements
+	 * @param	f			the function to apply to each element, which must be safe to call from several threads at once
+	 * @param	executor	the executor applying the function
+	 * @param	maxInFlight	the maximum number of elements submitted to the executor whose result has not been returned yet
+	 * @return				the newly created Iterator object
+	 */
+	public static <T,R> Iterator<R> parallelMapUnordered(final Iterator<T> iterator, final Function<T,R> f, final Executor executor, final int maxInFlight) {
+		return new UnorderedParallelIterator<T,R>(iterator, new Function<T,Object>() {
+			public Object apply(T t) {
+				return f.apply(t);
+			};
+		}, executor, maxInFlight);
+	}
+
+	/**
+	 * Returns an iterable consisting of the results of applying the given function to the elements of a given iterable,
+	 * where the function is applied by the threads of the given executor, see parallelMapUnordered(Iterator, Function, Executor, int)
+	 */
+	public static <T,R> Iterable<R> parallelMapUnordered(final Iterable<T> iterable, final Function<T,R> f, final Executor executor, final int maxInFlight) {
+		return new Iterable<R>() {
+			public Iterator<R> iterator() { return parallelMapUnordered(iterable.iterator(), f, executor, maxInFlight); }
+		};
+	}
+
+	/**
+	 * Returns an iterator consisting of the elements of a given iterator that match the given predicate, where the predicate is tested
+	 * by the threads of the given executor, and the matching elements are returned as soon as they are tested.
+	 * See parallelMapUnordered(Iterator, Function, Executor, int)
+	 */
+	public static <T> Iterator<T> parallelFilterUnordered(final Iterator<T> iterator, final Predicate<T> p, final Executor executor, final int maxInFlight) {
+		return new UnorderedParallelIterator<T,T>(iterator, new Function<T,Object>() {
+			public Object apply(T t) {
+				return p.test(t) ? t : UnorderedParallelIterator.REJECTED;
+			};
+		}, executor, maxInFlight);
+	}
+
+	/**
+	 * Returns an iterable consisting of the elements of a given iterable that match the given predicate, where the predicate is tested
+	 * by the threads of the given executor, see parallelFilterUnordered(Iterator, Predicate, Executor, int)
+	 */
+	public static <T> Iterable<T> parallelFilterUnordered(final Iterable<T> iterable, final Predicate<T> p, final Executor executor, final int maxInFlight) {
+		return new Iterable<T>() {
+			public Iterator<T> iterator() { return parallelFilterUnordered(iterable.iterator(), p, executor, maxInFlight); }
+		};
+	}
+
+	/**
+	 * The Iterator behind parallelMapUnordered and parallelFilterUnordered. Tasks are submitted through a CompletionService,
+	 * which queues every finished task so that the consuming thread takes the results in completion order.
+	 * A task returning REJECTED has no result to be returned.
+	 */
+	private static final class UnorderedParallelIterator<T,R> extends StageIterator<R> {
+		private static final Object REJECTED = new Object();
+
+		private final Iterator<T> iterator;
+		private final Function<T,Object> f;
+		private final CompletionService<Object> completionService;
+		private final int maxInFlight;
+		private int inFlight = 0;
+		private boolean ready = false;
+		private R readyNext = null;
+
+		private UnorderedParallelIterator(final Iterator<T> iterator, final Function<T,Object> f, final Executor executor, final int maxInFlight) {
+			super(iterator);
+			if(maxInFlight < 1) throw(new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight));
+			this.iterator = iterator;
+			this.f = f;
+			this.completionService = new ExecutorCompletionService<Object>(executor, new ArrayBlockingQueue<Future<Object>>(maxInFlight));
+			this.maxInFlight = maxInFlight;
+		}
+
+		public R next() {
+			if(this.hasNext()) {
+				R next = readyNext;
+				readyNext = null;
+				ready = false;
+				return next;
+			} else {
+				throw(new NoSuchElementException());
+			}
+		};
+
+		@SuppressWarnings("unchecked")
+		public boolean hasNext() {
+			while(!ready) {
+				while((inFlight < maxInFlight) && iterator.hasNext()) {
+					final T element = iterator.next();
+					completionService.submit(new Callable<Object>() {
+						public Object call() {
+							return f.apply(element);
+						};
+					});
+					inFlight++;
+				}
+				if(inFlight == 0) return false;
+				Future<Object> completed;
+				try {
+					completed = completionService.take();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw(new RuntimeException(e));
+				}
+				inFlight--;
+				Object result = getResult(completed);
+				if(result != REJECTED) {
+					readyNext = (R) result;
+					ready = true;
+				}
+			}
+			return true;
 		};
+
+		public void remove() { throw(new UnsupportedOperationException()); };
 	}
 
 	/**
@@ -83,15 +517,145 @@ public class Fn {
 	/**
 	 * Performs a reduction on the elements of the provided iterable, using the provided identity value and an associative accumulation function, and returns the reduced value.
 	 */
+	@SuppressWarnings("unchecked")
 	public static <T,U> U reduce(final Iterable<T> iterable, U identity, final BiFunction<U,T,U> accumulator) {
-		return reduce(iterable.iterator(), identity, accumulator);
+		final Object[] accumulatedWrapper = {identity};
+		push(iterable, new Consumer<T>() {
+			public void accept(T t) {
+				accumulatedWrapper[0] = accumulator.apply((U) accumulatedWrapper[0], t);
+			};
+		});
+		return (U) accumulatedWrapper[0];
+	}
+
+	/**
+	 * Performs a reduction on the elements of the provided iterable using several threads of the given executor, and returns the reduced value.
+	 * 
+	 * The iterable is divided into chunks as a Splittable (see splittable(Iterable)), each chunk is reduced starting from the identity value
+	 * in a different task, and the partial results are merged in order with the combiner function. An iterable which cannot be split
+	 * (such as the result of map or filter over a LinkedList) is reduced sequentially in the calling thread. The identity value must be an identity for the combiner function,
+	 * which must be associative and compatible with the accumulator function: combiner.apply(u, accumulator.apply(identity, t)) == accumulator.apply(u, t)
+	 * 
+	 * @param	iterable	the elements to reduce
+	 * @param	identity	the identity value for the combiner function
+	 * @param	accumulator	an associative function folding an element into a partial result
+	 * @param	combiner	an associative function merging two partial results
+	 * @param	executor	the executor running the reduction of every chunk
+	 * @return				the reduced value
+	 */
+	public static <T,U> U parallelReduce(final Iterable<T> iterable, final U identity, final BiFunction<U,T,U> accumulator, final BiFunction<U,U,U> combiner, final Executor executor) {
+		List<Splittable<T>> chunks = chunksOf(iterable);
+		if(chunks.size() < 2) {
+			return reduce(iterable, identity, accumulator);
+		}
+		List<FutureTask<U>> partials = new ArrayList<FutureTask<U>>(chunks.size());
+		try {
+			for(final Splittable<T> chunk: chunks) {
+				FutureTask<U> partial = new FutureTask<U>(new Callable<U>() {
+					public U call() {
+						return reduce(chunk, identity, accumulator);
+					};
+				});
+				partials.add(partial);
+				executor.execute(partial);
+			}
+			U combined = identity;
+			for(FutureTask<U> partial: partials) {
+				combined = combiner.apply(combined, getResult(partial));
+			}
+			return combined;
+		} finally {
+			for(FutureTask<U> partial: partials) {
+				partial.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Performs a reduction on the elements of the provided iterable using as many threads as available processors, and returns the reduced value.
+	 * The threads are started for this reduction only and stopped before returning, see parallelReduce(Iterable, U, BiFunction, BiFunction, Executor)
+	 */
+	public static <T,U> U parallelReduce(final Iterable<T> iterable, final U identity, final BiFunction<U,T,U> accumulator, final BiFunction<U,U,U> combiner) {
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			return parallelReduce(iterable, identity, accumulator, combiner, executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the given iterable as a Splittable: the iterable itself if it already is a Splittable (as the iterables created by jfnlite are),
+	 * a Splittable dividing its range if it is a List implementing RandomAccess, or an unsplittable wrapper otherwise.
+	 */
+	public static <T> Splittable<T> splittable(final Iterable<T> iterable) {
+		if(iterable instanceof Splittable) {
+			return (Splittable<T>) iterable;
+		} else if((iterable instanceof List) && (iterable instanceof RandomAccess)) {
+			return new RandomAccessListIterable<T>((List<T>) iterable, 0, ((List<T>) iterable).size());
+		} else {
+			return new UnsplittableIterable<T>(iterable);
+		}
+	}
+
+	/**
+	 * Splits an iterable into parts for the parallel operations, until there are enough parts to keep all processors busy,
+	 * the parts are too small to be worth a task, or they cannot be split anymore.
+	 */
+	private static <T> List<Splittable<T>> chunksOf(final Iterable<T> iterable) {
+		int targetChunkCount = Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR;
+		List<Splittable<T>> chunks = new ArrayList<Splittable<T>>();
+		chunks.add(splittable(iterable));
+		boolean splitAny = true;
+		while(splitAny && (chunks.size() < targetChunkCount)) {
+			splitAny = false;
+			List<Splittable<T>> splitChunks = new ArrayList<Splittable<T>>(chunks.size() * 2);
+			for(Splittable<T> chunk: chunks) {
+				List<Splittable<T>> parts = (chunk.estimateSize() >= 2 * MIN_CHUNK_SIZE) ? chunk.trySplit() : null;
+				if(parts == null) {
+					splitChunks.add(chunk);
+				} else {
+					splitChunks.addAll(parts);
+					splitAny = true;
+				}
+			}
+			chunks = splitChunks;
+		}
+		return chunks;
+	}
+
+	/**
+	 * The number of chunks per available processor the parallel operations divide their input into, so that a slow chunk does not keep the other threads idle
+	 */
+	private static final int CHUNKS_PER_PROCESSOR = 4;
+
+	/**
+	 * The minimum estimated number of elements of a chunk, below which the cost of a task outweighs the benefit of running it in parallel
+	 */
+	private static final int MIN_CHUNK_SIZE = 1024;
+
+	/**
+	 * Waits for the computation of the given future and returns its result, rethrowing unchanged any unchecked exception or error thrown by the computation
+	 */
+	private static <V> V getResult(final Future<V> future) {
+		try {
+			return future.get();
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) throw((RuntimeException) cause);
+			if(cause instanceof Error) throw((Error) cause);
+			throw(new RuntimeException(cause));
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw(new RuntimeException(e));
+		}
 	}
 
 	/**
 	 * Returns an iterator consisting of the elements of this iterator that match the given predicate.
 	 */
 	public static <T> Iterator<T> filter(final Iterator<T> iterator, final Predicate<T> p) {
-		return new Iterator<T>() {
+		return new StageIterator<T>(iterator) {
 			private T cachedFilteredNext = null;
 			public T next() {
 				T filteredNext = null;
@@ -119,205 +683,4747 @@ public class Fn {
 	 * Returns an iterable consisting of the elements of this iterable that match the given predicate.
 	 */
 	public static <T> Iterable<T> filter(final Iterable<T> iterable, final Predicate<T> p) {
-		return new Iterable<T>(){
-			public Iterator<T> iterator() { return filter(iterable.iterator(), p); }
-		};
+		return new FilterIterable<T>(iterable, p);
 	}
 
 	/**
-	 * Stores the elements from the Iterator into a List
+	 * Performs the given action for each element of the iterator.
 	 */
-	public static <T> List<T> collectToList(final Iterator<T> iterator) {
-		List<T> list = new ArrayList<T>();
+	public static <T> void forEach(final Iterator<T> iterator, final Consumer<T> action) {
 		while(iterator.hasNext()) {
-			list.add(iterator.next());
-		};
-		return list;
+			action.accept(iterator.next());
+		}
 	}
 
 	/**
-	 * Stores the elements from the Iterable into a List
+	 * Performs the given action for each element of the iterable.
+	 * 
+	 * The iterables created by iterableOf, map, filter, flatten, concat and Pipeline push their elements through all their stages
+	 * straight to the action, which saves the hasNext() and next() calls that an iterator would need at every stage.
 	 */
-	public static <T> List<T> collectToList(final Iterable<T> iterable) {
-		List<T> list = new ArrayList<T>();
-		for(T element: iterable) {
-			list.add(element);
-		};
-		return list;
+	public static <T> void forEach(final Iterable<T> iterable, final Consumer<T> action) {
+		push(iterable, action);
 	}
 
 	/**
-	 * Returns an Identity Iterator (which contains no elements).
-	 * 
-	 * Although the most efficient approach is to do a class cast on a constant iterator,
-	 * using the generic-enabled constructor of this class is a way to avoid unchecked cast warnings
+	 * Pushes every element of the iterable to the consumer, through its push method if it is Pushable or through its iterator otherwise
 	 */
-	public static <T> Iterator<T> getIdentityIterator() {
-		return new Iterator<T>(){
-			public T next() { throw(new NoSuchElementException()); };
-			public boolean hasNext() { return false; };
-			public void remove() { throw(new UnsupportedOperationException()); };
-		};
+	@SuppressWarnings("unchecked")
+	private static <T> void push(final Iterable<T> iterable, final Consumer<T> consumer) {
+		if(iterable instanceof Pushable) {
+			((Pushable<T>) iterable).push(consumer);
+		} else {
+			Iterator<T> iterator = iterable.iterator();
+			try {
+				forEach(iterator, consumer);
+			} finally {
+				closeIfCloseable(iterator);
+			}
+		}
 	}
-	
+
 	/**
-	 * Creates a lazily concatenated iterator whose elements are all the elements of the input iterators.
-	 * The resulting iterator is ordered if all the input iterators are ordered.
-	 * 
-	 * Note that this function does not exist in java8 Stream (although the same could be done passing an identity function to flatMap function),
-	 * however, I already needed to implement this functionality as a requirement to flatMap, so why not making it public as it is done in Scala?
+	 * Returns whether any element of the iterator matches the given predicate.
+	 * No more elements are pulled from the iterator (nor from the stages it is built on) once a matching element is found.
 	 */
-	public static <T> Iterator<T> flatten(final Iterator<Iterator<T>> iteratorOfIterators) {
-		return new Iterator<T>() {
-			// The new Iterator will need a currentIterator variable to keep track of which of all iterators is in use
-			private Iterator<T> currentIterator = getIdentityIterator(); // We initialize it to an empty iterator
-			public T next() {
-				if(this.hasNext()) {
-					return currentIterator.next();
-				} else {
-					throw(new NoSuchElementException());
-				}
-			};
-			public boolean hasNext() {
-				while( (!currentIterator.hasNext()) && (iteratorOfIterators.hasNext()) ) {
-					currentIterator = iteratorOfIterators.next();
-				};
-				return currentIterator.hasNext();
-			};
-			public void remove() { throw new UnsupportedOperationException(); };
-		};
+	public static <T> boolean anyMatch(final Iterator<T> iterator, final Predicate<T> p) {
+		while(iterator.hasNext()) {
+			if(p.test(iterator.next())) return true;
+		}
+		return false;
 	}
 
 	/**
-	 * Creates a lazily concatenated iterable whose elements are all the elements of the input iterables.
-	 * The resulting iterable is ordered if all the input iterables are ordered.
-	 * 
-	 * Note that this function does not exist in java8 Stream (although the same could be done passing an identity function to flatMap function),
-	 * however, I already needed to implement this functionality as a requirement to flatMap, so why not making it public as it is done in Scala?
+	 * Returns whether any element of the iterable matches the given predicate, see anyMatch(Iterator, Predicate)
 	 */
-	public static <T> Iterable<T> flatten(final Iterable<Iterable<T>> iterableOfIterables) {
-		Function<Iterable<T>,Iterator<T>> iterableToIterator = new Function<Iterable<T>,Iterator<T>>() {
-			public Iterator<T> apply(Iterable<T> iterable) {
-				return iterable.iterator();
-			};
-		};
-		final Iterable<Iterator<T>> iterableOfIterators = map(iterableOfIterables, iterableToIterator);
-		return new Iterable<T>(){
-			public Iterator<T> iterator() {
-				return flatten(iterableOfIterators.iterator());
-			}
-		};
+	public static <T> boolean anyMatch(final Iterable<T> iterable, final Predicate<T> p) {
+		Iterator<T> iterator = iterable.iterator();
+		try {
+			return anyMatch(iterator, p);
+		} finally {
+			closeIfCloseable(iterator);
+		}
 	}
 
 	/**
-	 * Creates a lazily concatenated iterator whose elements are all the elements of the two input iterators.
-	 * The resulting iterator is ordered if both input iterators are ordered.
+	 * Returns whether all the elements of the iterator match the given predicate (true if it has no elements).
+	 * No more elements are pulled from the iterator (nor from the stages it is built on) once a non matching element is found.
 	 */
-	public static <T> Iterator<T> concat(final Iterator<T> iterator1, final Iterator<T> iterator2) {
-		return new Iterator<T>() {
+	public static <T> boolean allMatch(final Iterator<T> iterator, final Predicate<T> p) {
+		while(iterator.hasNext()) {
+			if(!p.test(iterator.next())) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether all the elements of the iterable match the given predicate, see allMatch(Iterator, Predicate)
+	 */
+	public static <T> boolean allMatch(final Iterable<T> iterable, final Predicate<T> p) {
+		Iterator<T> iterator = iterable.iterator();
+		try {
+			return allMatch(iterator, p);
+		} finally {
+			closeIfCloseable(iterator);
+		}
+	}
+
+	/**
+	 * Returns whether no element of the iterator matches the given predicate (true if it has no elements).
+	 * No more elements are pulled from the iterator (nor from the stages it is built on) once a matching element is found.
+	 */
+	public static <T> boolean noneMatch(final Iterator<T> iterator, final Predicate<T> p) {
+		return !anyMatch(iterator, p);
+	}
+
+	/**
+	 * Returns whether no element of the iterable matches the given predicate, see noneMatch(Iterator, Predicate)
+	 */
+	public static <T> boolean noneMatch(final Iterable<T> iterable, final Predicate<T> p) {
+		return !anyMatch(iterable, p);
+	}
+
+	/**
+	 * Returns the first element of the iterator that matches the given predicate, or null if no element matches it.
+	 * No more elements are pulled from the iterator (nor from the stages it is built on) once a matching element is found.
+	 */
+	public static <T> T findFirst(final Iterator<T> iterator, final Predicate<T> p) {
+		T readNext;
+		while(iterator.hasNext()) {
+			readNext = iterator.next();
+			if(p.test(readNext)) return readNext;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the first element of the iterable that matches the given predicate, or null if no element matches it, see findFirst(Iterator, Predicate)
+	 */
+	public static <T> T findFirst(final Iterable<T> iterable, final Predicate<T> p) {
+		Iterator<T> iterator = iterable.iterator();
+		try {
+			return findFirst(iterator, p);
+		} finally {
+			closeIfCloseable(iterator);
+		}
+	}
+
+	/**
+	 * Closes an iterator which an operation over an iterable may stop reading before its end, if the iterator holds resources
+	 * which are otherwise only released at its end (such as the file of a RecordIterator)
+	 */
+	private static void closeIfCloseable(final Iterator<?> iterator) {
+		if(iterator instanceof Closeable) {
+			try {
+				((Closeable) iterator).close();
+			} catch(IOException e) {
+				throw(new UncheckedIOException(e));
+			}
+		}
+	}
+
+	/**
+	 * The base of the iterators returned by the operations over another iterator, whose close() closes that iterator if it is Closeable,
+	 * so that closing the last stage of a chain (e.g. a filter over a map over records) releases the resources held by its source.
+	 * Closing a stage whose source is not Closeable does nothing.
+	 */
+	private static abstract class StageIterator<T> implements Iterator<T>, Closeable {
+		private final Iterator<?> source;
+
+		private StageIterator(final Iterator<?> source) {
+			this.source = source;
+		}
+
+		public void close() throws IOException {
+			if(source instanceof Closeable) ((Closeable) source).close();
+		}
+	}
+
+	/**
+	 * Stores the elements from the Iterator into a List.
+	 * The list is created with the exact capacity when the iterator comes from iteratorOf(T[])
+	 */
+	public static <T> List<T> collectToList(final Iterator<T> iterator) {
+		int size = knownSize(iterator);
+		List<T> list = (size < 0) ? new ArrayList<T>() : new ArrayList<T>(size);
+		while(iterator.hasNext()) {
+			list.add(iterator.next());
+		};
+		return list;
+	}
+
+	/**
+	 * Stores the elements from the Iterable into a List.
+	 * The list is created with the exact capacity when the size of the iterable is known without iterating it,
+	 * as it happens with collections and with the results of iterableOf, map and concat over them.
+	 */
+	public static <T> List<T> collectToList(final Iterable<T> iterable) {
+		int size = knownSize(iterable);
+		final List<T> list = (size < 0) ? new ArrayList<T>() : new ArrayList<T>(size);
+		push(iterable, new Consumer<T>() {
+			public void accept(T element) {
+				list.add(element);
+			};
+		});
+		return list;
+	}
+
+	/**
+	 * Stores the elements from the Iterator into an array, following the contract of Collection.toArray(T[]):
+	 * the given array is used if it is big enough (and the element following the last one is set to null), otherwise a new array of the same runtime type is allocated.
+	 */
+	public static <T> T[] collectToArray(final Iterator<T> iterator, final T[] array) {
+		return collectToList(iterator).toArray(array);
+	}
+
+	/**
+	 * Stores the elements from the Iterable into an array, following the contract of Collection.toArray(T[]):
+	 * the given array is used if it is big enough (and the element following the last one is set to null), otherwise a new array of the same runtime type is allocated.
+	 * When the size of the iterable is known without iterating it (see collectToList(Iterable)), the elements are stored directly into an array of the exact size.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T[] collectToArray(final Iterable<T> iterable, final T[] array) {
+		int size = knownSize(iterable);
+		if(size < 0) return collectToList(iterable).toArray(array);
+		T[] sized = (array.length >= size) ? array : (T[]) Array.newInstance(array.getClass().getComponentType(), size);
+		Iterator<T> iterator = iterable.iterator();
+		int index = 0;
+		while((index < size) && iterator.hasNext()) {
+			sized[index++] = iterator.next();
+		}
+		if((index < size) || iterator.hasNext()) {
+			// The iterable did not have the size it reported (its source was modified meanwhile), so fall back to a list
+			List<T> list = new ArrayList<T>(Arrays.asList(sized).subList(0, index));
+			while(iterator.hasNext()) {
+				list.add(iterator.next());
+			}
+			return list.toArray(array);
+		}
+		if(sized.length > size) sized[size] = null;
+		return sized;
+	}
+
+	/**
+	 * Returns the exact number of elements of an iterable if it is known without iterating it (see Splittable.SIZED), or -1 otherwise
+	 */
+	private static int knownSize(final Iterable<?> iterable) {
+		Splittable<?> splittable = splittable(iterable);
+		long size = splittable.estimateSize();
+		return (((splittable.characteristics() & Splittable.SIZED) != 0) && (size <= Integer.MAX_VALUE)) ? (int) size : -1;
+	}
+
+	/**
+	 * Returns the number of elements left in an iterator created by iteratorOf(T[]), or -1 for any other iterator
+	 */
+	private static int knownSize(final Iterator<?> iterator) {
+		if(iterator instanceof ArrayIterator) {
+			return ((ArrayIterator<?>) iterator).to - ((ArrayIterator<?>) iterator).index;
+		} else {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns an iterator consisting of the first maxSize elements of a given iterator.
+	 * Once maxSize elements have been returned, no more elements are pulled from the given iterator (nor from the stages it is built on).
+	 */
+	public static <T> Iterator<T> limit(final Iterator<T> iterator, final long maxSize) {
+		return limit(iterator, maxSize, false);
+	}
+
+	/**
+	 * Returns an iterator consisting of the first maxSize elements of a given iterator, which is closed by the first hasNext() call
+	 * after maxSize elements have been returned if closeSource is true and it is Closeable (not before, as the last element may depend on it)
+	 */
+	private static <T> Iterator<T> limit(final Iterator<T> iterator, final long maxSize, final boolean closeSource) {
+		if(maxSize < 0) throw(new IllegalArgumentException("maxSize must not be negative: " + maxSize));
+		return new StageIterator<T>(iterator) {
+			private long remaining = maxSize;
 			public T next() {
-				if(iterator1.hasNext()) {
-					return iterator1.next();
+				if(this.hasNext()) {
+					remaining--;
+					return iterator.next();
 				} else {
-					return iterator2.next();
+					throw(new NoSuchElementException());
 				}
 			};
 			public boolean hasNext() {
-				if(iterator1.hasNext()) {
-					return true;
+				if(remaining > 0) return iterator.hasNext();
+				if(closeSource) closeIfCloseable(iterator);
+				return false;
+			};
+			public void remove() { iterator.remove(); };
+		};
+	}
+
+	/**
+	 * Returns an iterable consisting of the first maxSize elements of a given iterable.
+	 * When the iterable comes from iterableOf(T[]) or is a List implementing RandomAccess (or a map over them), the result just narrows its range.
+	 * Otherwise, when the iterators of the iterable are Closeable (as those of records), each one is closed when it is asked for more than maxSize elements.
+	 */
+	public static <T> Iterable<T> limit(final Iterable<T> iterable, final long maxSize) {
+		if(maxSize < 0) throw(new IllegalArgumentException("maxSize must not be negative: " + maxSize));
+		Iterable<T> range = range(iterable, 0, maxSize);
+		if(range != null) return range;
+		return new Iterable<T>() {
+			public Iterator<T> iterator() { return limit(iterable.iterator(), maxSize, true); }
+		};
+	}
+
+	/**
+	 * Returns an iterator consisting of the elements of a given iterator after discarding its first n elements.
+	 * When the iterator comes from iteratorOf(T[]), the discarded elements are jumped over instead of being read one by one.
+	 */
+	public static <T> Iterator<T> skip(final Iterator<T> iterator, final long n) {
+		if(n < 0) throw(new IllegalArgumentException("n must not be negative: " + n));
+		if(iterator instanceof ArrayIterator) {
+			ArrayIterator<T> arrayIterator = (ArrayIterator<T>) iterator;
+			return new ArrayIterator<T>(arrayIterator.array, arrayIterator.index + (int) Math.min(n, arrayIterator.to - arrayIterator.index), arrayIterator.to);
+		}
+		return new StageIterator<T>(iterator) {
+			private long toSkip = n;
+			public T next() {
+				if(this.hasNext()) {
+					return iterator.next();
 				} else {
-					return iterator2.hasNext();
+					throw(new NoSuchElementException());
 				}
 			};
-			public void remove() { throw new UnsupportedOperationException(); };
+			public boolean hasNext() {
+				while((toSkip > 0) && iterator.hasNext()) {
+					iterator.next();
+					toSkip--;
+				}
+				return iterator.hasNext();
+			};
+			public void remove() { iterator.remove(); };
 		};
 	}
 
 	/**
-	 * Creates a lazily concatenated iterable whose elements are all the elements of the two input iterables.
-	 * The resulting iterator is ordered if both input iterables are ordered.
+	 * Returns an iterable consisting of the elements of a given iterable after discarding its first n elements.
+	 * When the iterable comes from iterableOf(T[]) or is a List implementing RandomAccess, the result just narrows its range, so skipping is O(1).
+	 * The same happens with a map over them, where the function is not even applied to the discarded elements.
 	 */
-	public static <T> Iterable<T> concat(final Iterable<T> iterable1, final Iterable<T> iterable2) {
+	public static <T> Iterable<T> skip(final Iterable<T> iterable, final long n) {
+		if(n < 0) throw(new IllegalArgumentException("n must not be negative: " + n));
+		Iterable<T> range = range(iterable, n, Long.MAX_VALUE);
+		if(range != null) return range;
 		return new Iterable<T>() {
-			public Iterator<T> iterator() {
-				return concat(iterable1.iterator(), iterable2.iterator());
-			}
+			public Iterator<T> iterator() { return skip(iterable.iterator(), n); }
 		};
 	}
 
 	/**
-	 * Creates an Iterator returning the values from an array of objects
-	 * 
-	 * @param	array	an array of objects
-	 * @return			the newly created Iterator object
+	 * Returns the elements of a random access iterable (see limit and skip) from the given position, up to maxSize of them,
+	 * without iterating over it. Returns null if the iterable is not random access.
 	 */
-	public static <T> Iterator<T> iteratorOf(final T[] array) {
-		final int[] indexWrapper = {0};
-		return new Iterator<T>() {
+	private static <T> Iterable<T> range(final Iterable<T> iterable, final long from, final long maxSize) {
+		if(iterable instanceof ArrayIterable) {
+			ArrayIterable<T> arrayIterable = (ArrayIterable<T>) iterable;
+			int rangeFrom = arrayIterable.from + (int) Math.min(from, arrayIterable.to - arrayIterable.from);
+			return new ArrayIterable<T>(arrayIterable.array, rangeFrom, rangeFrom + (int) Math.min(maxSize, arrayIterable.to - rangeFrom));
+		} else if(iterable instanceof RandomAccessListIterable) {
+			RandomAccessListIterable<T> listIterable = (RandomAccessListIterable<T>) iterable;
+			int rangeFrom = listIterable.from + (int) Math.min(from, listIterable.to - listIterable.from);
+			return new RandomAccessListIterable<T>(listIterable.list, rangeFrom, rangeFrom + (int) Math.min(maxSize, listIterable.to - rangeFrom));
+		} else if(iterable instanceof ListRangeIterable) {
+			ListRangeIterable<T> listRange = (ListRangeIterable<T>) iterable;
+			long skipped = Math.min(from, listRange.maxSize);
+			long rangeFrom = (listRange.from > Long.MAX_VALUE - skipped) ? Long.MAX_VALUE : listRange.from + skipped;
+			return new ListRangeIterable<T>(listRange.list, rangeFrom, Math.min(maxSize, listRange.maxSize - skipped));
+		} else if((iterable instanceof List) && (iterable instanceof RandomAccess)) {
+			return new ListRangeIterable<T>((List<T>) iterable, from, maxSize);
+		} else if(iterable instanceof MapIterable) {
+			return rangeOfMap((MapIterable<?,T>) iterable, from, maxSize);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * A range of a List implementing RandomAccess, which is only bounded by the size of the list when it is iterated,
+	 * so that it includes the elements added to the list (or excludes those removed) after the range was created, as any other view of the list
+	 */
+	private static final class ListRangeIterable<T> implements Splittable<T>, Pushable<T> {
+		private final List<T> list;
+		private final long from;
+		private final long maxSize;
+
+		private ListRangeIterable(final List<T> list, final long from, final long maxSize) {
+			this.list = list;
+			this.from = from;
+			this.maxSize = maxSize;
+		}
+
+		/**
+		 * Returns the elements of the range within the current size of the list
+		 */
+		private RandomAccessListIterable<T> bounded() {
+			int size = list.size();
+			int rangeFrom = (int) Math.min(from, size);
+			return new RandomAccessListIterable<T>(list, rangeFrom, rangeFrom + (int) Math.min(maxSize, size - rangeFrom));
+		}
+
+		public Iterator<T> iterator() {
+			return bounded().iterator();
+		}
+
+		public void push(final Consumer<T> consumer) {
+			bounded().push(consumer);
+		}
+
+		public List<Splittable<T>> trySplit() {
+			return bounded().trySplit();
+		}
+
+		public long estimateSize() {
+			return bounded().estimateSize();
+		}
+
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+	}
+
+	/**
+	 * Returns the range of a map over a random access iterable as a map over the range of its source, or null if the source is not random access
+	 */
+	private static <S,T> Iterable<T> rangeOfMap(final MapIterable<S,T> mapIterable, final long from, final long maxSize) {
+		Iterable<S> sourceRange = range(mapIterable.iterable, from, maxSize);
+		return (sourceRange == null) ? null : map(sourceRange, mapIterable.f);
+	}
+
+	/**
+	 * Returns an iterator consisting of the leading elements of a given iterator that match the given predicate.
+	 * Once an element does not match it, no more elements are pulled from the given iterator.
+	 */
+	public static <T> Iterator<T> takeWhile(final Iterator<T> iterator, final Predicate<T> p) {
+		return takeWhile(iterator, p, false);
+	}
+
+	/**
+	 * Returns an iterator consisting of the leading elements of a given iterator that match the given predicate,
+	 * which is closed once an element does not match if closeSource is true and it is Closeable
+	 */
+	private static <T> Iterator<T> takeWhile(final Iterator<T> iterator, final Predicate<T> p, final boolean closeSource) {
+		return new StageIterator<T>(iterator) {
+			private boolean hasCachedNext = false;
+			private boolean taking = true;
+			private T cachedNext = null;
 			public T next() {
 				if(this.hasNext()) {
-					return array[indexWrapper[0]++];
+					T next = cachedNext;
+					cachedNext = null;
+					hasCachedNext = false;
+					return next;
 				} else {
 					throw(new NoSuchElementException());
 				}
 			};
 			public boolean hasNext() {
-				return (indexWrapper[0] < array.length);
+				if(!hasCachedNext && taking && iterator.hasNext()) {
+					cachedNext = iterator.next();
+					if(p.test(cachedNext)) {
+						hasCachedNext = true;
+					} else {
+						cachedNext = null;
+						taking = false;
+						if(closeSource) closeIfCloseable(iterator);
+					}
+				}
+				return hasCachedNext;
 			};
 			public void remove() { throw(new UnsupportedOperationException()); };
 		};
 	}
 
 	/**
-	 * Creates an Iterable returning the values from an array of objects
-	 * 
-	 * @param	array	an array of objects
-	 * @return			the newly created Iterable object
+	 * Returns an iterable consisting of the leading elements of a given iterable that match the given predicate, see takeWhile(Iterator, Predicate).
+	 * When the iterators of the iterable are Closeable (as those of records), each one is closed once an element does not match.
 	 */
-	public static <T> Iterable<T> iterableOf(final T[] array) {
+	public static <T> Iterable<T> takeWhile(final Iterable<T> iterable, final Predicate<T> p) {
 		return new Iterable<T>() {
-			public Iterator<T> iterator() {
-				return iteratorOf(array);
+			public Iterator<T> iterator() { return takeWhile(iterable.iterator(), p, true); }
+		};
+	}
+
+	/**
+	 * Returns an iterator consisting of the elements of a given iterator after discarding its leading elements that match the given predicate.
+	 */
+	public static <T> Iterator<T> dropWhile(final Iterator<T> iterator, final Predicate<T> p) {
+		return new StageIterator<T>(iterator) {
+			private boolean dropping = true;
+			private boolean hasCachedNext = false;
+			private T cachedNext = null;
+			public T next() {
+				if(this.hasNext()) {
+					if(hasCachedNext) {
+						T next = cachedNext;
+						cachedNext = null;
+						hasCachedNext = false;
+						return next;
+					}
+					return iterator.next();
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				while(dropping && iterator.hasNext()) {
+					cachedNext = iterator.next();
+					if(!p.test(cachedNext)) {
+						hasCachedNext = true;
+						dropping = false;
+					}
+				}
+				dropping = false;
+				return hasCachedNext || iterator.hasNext();
 			};
+			public void remove() { throw(new UnsupportedOperationException()); };
+		};
+	}
+
+	/**
+	 * Returns an iterable consisting of the elements of a given iterable after discarding its leading elements that match the given predicate, see dropWhile(Iterator, Predicate)
+	 */
+	public static <T> Iterable<T> dropWhile(final Iterable<T> iterable, final Predicate<T> p) {
+		return new Iterable<T>() {
+			public Iterator<T> iterator() { return dropWhile(iterable.iterator(), p); }
+		};
+	}
+
+	/**
+	 * Returns an Identity Iterator (which contains no elements).
+	 * 
+	 * Although the most efficient approach is to do a class cast on a constant iterator,
+	 * using the generic-enabled constructor of this class is a way to avoid unchecked cast warnings
+	 */
+	public static <T> Iterator<T> getIdentityIterator() {
+		return new Iterator<T>(){
+			public T next() { throw(new NoSuchElementException()); };
+			public boolean hasNext() { return false; };
+			public void remove() { throw(new UnsupportedOperationException()); };
 		};
 	}
 	
 	/**
-	 * Creates an Iterator containing a single element
+	 * Creates a lazily concatenated iterator whose elements are all the elements of the input iterators.
+	 * The resulting iterator is ordered if all the input iterators are ordered.
 	 * 
-	 * @param	singleElement	a single element
-	 * @return					the newly created Iterator object
+	 * Note that this function does not exist in java8 Stream (although the same could be done passing an identity function to flatMap function),
+	 * however, I already needed to implement this functionality as a requirement to flatMap, so why not making it public as it is done in Scala?
 	 */
-	public static <T> Iterator<T> iteratorOf(final T singleElement) {
-		final boolean[] hasNextWrapper = {true};
-		return new Iterator<T>() {
+	public static <T> Iterator<T> flatten(final Iterator<Iterator<T>> iteratorOfIterators) {
+		return new StageIterator<T>(iteratorOfIterators) {
+			// The new Iterator will need a currentIterator variable to keep track of which of all iterators is in use
+			private Iterator<T> currentIterator = getIdentityIterator(); // We initialize it to an empty iterator
 			public T next() {
 				if(this.hasNext()) {
-					hasNextWrapper[0] = false;
-					return singleElement;
+					return currentIterator.next();
 				} else {
 					throw(new NoSuchElementException());
 				}
 			};
 			public boolean hasNext() {
-				return (hasNextWrapper[0]);
+				while( (!currentIterator.hasNext()) && (iteratorOfIterators.hasNext()) ) {
+					currentIterator = iteratorOfIterators.next();
+				};
+				return currentIterator.hasNext();
+			};
+			public void remove() { throw new UnsupportedOperationException(); };
+			public void close() throws IOException {
+				try {
+					if(currentIterator instanceof Closeable) ((Closeable) currentIterator).close();
+				} finally {
+					super.close();
+				}
 			};
-			public void remove() { throw(new UnsupportedOperationException()); };
 		};
 	}
 
 	/**
-	 * Creates an Iterable containing a single element
+	 * Creates a lazily concatenated iterable whose elements are all the elements of the input iterables.
+	 * The resulting iterable is ordered if all the input iterables are ordered.
 	 * 
-	 * @param	singleElement	a single element
-	 * @return					the newly created Iterator object
+	 * Note that this function does not exist in java8 Stream (although the same could be done passing an identity function to flatMap function),
+	 * however, I already needed to implement this functionality as a requirement to flatMap, so why not making it public as it is done in Scala?
 	 */
-	public static <T> Iterable<T> iterableOf(final T singleElement) {
-		return new Iterable<T>() {
-			public Iterator<T> iterator() {
-				return iteratorOf(singleElement);
+	public static <T> Iterable<T> flatten(final Iterable<Iterable<T>> iterableOfIterables) {
+		return new FlattenIterable<T>(iterableOfIterables);
+	}
+
+	/**
+	 * Creates a lazily concatenated iterator whose elements are all the elements of the two input iterators.
+	 * The resulting iterator is ordered if both input iterators are ordered.
+	 */
+	public static <T> Iterator<T> concat(final Iterator<T> iterator1, final Iterator<T> iterator2) {
+		return new StageIterator<T>(iterator1) {
+			public T next() {
+				if(iterator1.hasNext()) {
+					return iterator1.next();
+				} else {
+					return iterator2.next();
+				}
 			};
-		};
+			public boolean hasNext() {
+				if(iterator1.hasNext()) {
+					return true;
+				} else {
+					return iterator2.hasNext();
+				}
+			};
+			public void remove() { throw new UnsupportedOperationException(); };
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					if(iterator2 instanceof Closeable) ((Closeable) iterator2).close();
+				}
+			};
+		};
+	}
+
+	/**
+	 * Creates a lazily concatenated iterable whose elements are all the elements of the two input iterables.
+	 * The resulting iterator is ordered if both input iterables are ordered.
+	 */
+	public static <T> Iterable<T> concat(final Iterable<T> iterable1, final Iterable<T> iterable2) {
+		return new ConcatIterable<T>(iterable1, iterable2);
+	}
+
+	/**
+	 * Creates an Iterator returning the values from an array of objects
+	 * 
+	 * @param	array	an array of objects
+	 * @return			the newly created Iterator object
+	 */
+	public static <T> Iterator<T> iteratorOf(final T[] array) {
+		return new ArrayIterator<T>(array, 0, array.length);
+	}
+
+	/**
+	 * Creates an Iterable returning the values from an array of objects
+	 * 
+	 * @param	array	an array of objects
+	 * @return			the newly created Iterable object
+	 */
+	public static <T> Iterable<T> iterableOf(final T[] array) {
+		return new ArrayIterable<T>(array, 0, array.length);
+	}
+	
+	/**
+	 * Creates an Iterator containing a single element
+	 * 
+	 * @param	singleElement	a single element
+	 * @return					the newly created Iterator object
+	 */
+	public static <T> Iterator<T> iteratorOf(final T singleElement) {
+		final boolean[] hasNextWrapper = {true};
+		return new Iterator<T>() {
+			public T next() {
+				if(this.hasNext()) {
+					hasNextWrapper[0] = false;
+					return singleElement;
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				return (hasNextWrapper[0]);
+			};
+			public void remove() { throw(new UnsupportedOperationException()); };
+		};
+	}
+
+	/**
+	 * Creates an Iterable containing a single element
+	 * 
+	 * @param	singleElement	a single element
+	 * @return					the newly created Iterator object
+	 */
+	public static <T> Iterable<T> iterableOf(final T singleElement) {
+		return new SingletonIterable<T>(singleElement);
+	}
+
+	/**
+	 * The Splittable returned by iterableOf(T), which cannot be split.
+	 */
+	private static final class SingletonIterable<T> implements Splittable<T>, Pushable<T> {
+		private final T singleElement;
+
+		private SingletonIterable(final T singleElement) {
+			this.singleElement = singleElement;
+		}
+
+		public Iterator<T> iterator() {
+			return iteratorOf(singleElement);
+		}
+
+		public void push(final Consumer<T> consumer) {
+			consumer.accept(singleElement);
+		}
+
+		public List<Splittable<T>> trySplit() {
+			return null;
+		}
+
+		public long estimateSize() {
+			return 1;
+		}
+
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | ((singleElement != null) ? NONNULL : 0);
+		}
+	}
+
+	/**
+	 * An Iterator over the range [from, to) of an array.
+	 */
+	private static final class ArrayIterator<T> implements Iterator<T> {
+		private final T[] array;
+		private final int to;
+		private int index;
+
+		private ArrayIterator(final T[] array, final int from, final int to) {
+			this.array = array;
+			this.index = from;
+			this.to = to;
+		}
+
+		public T next() {
+			if(this.hasNext()) {
+				return array[index++];
+			} else {
+				throw(new NoSuchElementException());
+			}
+		};
+
+		public boolean hasNext() {
+			return (index < to);
+		};
+
+		public void remove() { throw(new UnsupportedOperationException()); };
+	}
+
+	/**
+	 * A Splittable over the range [from, to) of an array, which is split into two halves of the range without copying the array.
+	 */
+	private static final class ArrayIterable<T> implements Splittable<T>, Pushable<T> {
+		private final T[] array;
+		private final int from;
+		private final int to;
+
+		private ArrayIterable(final T[] array, final int from, final int to) {
+			this.array = array;
+			this.from = from;
+			this.to = to;
+		}
+
+		public Iterator<T> iterator() {
+			return new ArrayIterator<T>(array, from, to);
+		}
+
+		public void push(final Consumer<T> consumer) {
+			for(int index = from; index < to; index++) {
+				consumer.accept(array[index]);
+			}
+		}
+
+		public List<Splittable<T>> trySplit() {
+			if(to - from < 2) return null;
+			int middle = (from + to) >>> 1;
+			List<Splittable<T>> parts = new ArrayList<Splittable<T>>(2);
+			parts.add(new ArrayIterable<T>(array, from, middle));
+			parts.add(new ArrayIterable<T>(array, middle, to));
+			return parts;
+		}
+
+		public long estimateSize() {
+			return to - from;
+		}
+
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+	}
+
+	/**
+	 * A Splittable over the range [from, to) of a random access list, which is split into two halves of the range.
+	 */
+	private static final class RandomAccessListIterable<T> implements Splittable<T>, Pushable<T> {
+		private final List<T> list;
+		private final int from;
+		private final int to;
+
+		private RandomAccessListIterable(final List<T> list, final int from, final int to) {
+			this.list = list;
+			this.from = from;
+			this.to = to;
+		}
+
+		public Iterator<T> iterator() {
+			return list.subList(from, to).iterator();
+		}
+
+		public void push(final Consumer<T> consumer) {
+			for(int index = from; index < to; index++) {
+				consumer.accept(list.get(index));
+			}
+		}
+
+		public List<Splittable<T>> trySplit() {
+			if(to - from < 2) return null;
+			int middle = (from + to) >>> 1;
+			List<Splittable<T>> parts = new ArrayList<Splittable<T>>(2);
+			parts.add(new RandomAccessListIterable<T>(list, from, middle));
+			parts.add(new RandomAccessListIterable<T>(list, middle, to));
+			return parts;
+		}
+
+		public long estimateSize() {
+			return to - from;
+		}
+
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+	}
+
+	/**
+	 * A Splittable over any other iterable, which cannot be split. Its size is known only when the iterable is a Collection.
+	 */
+	private static final class UnsplittableIterable<T> implements Splittable<T> {
+		private final Iterable<T> iterable;
+
+		private UnsplittableIterable(final Iterable<T> iterable) {
+			this.iterable = iterable;
+		}
+
+		public Iterator<T> iterator() {
+			return iterable.iterator();
+		}
+
+		public List<Splittable<T>> trySplit() {
+			return null;
+		}
+
+		public long estimateSize() {
+			return (iterable instanceof Collection) ? ((Collection<T>) iterable).size() : Long.MAX_VALUE;
+		}
+
+		public int characteristics() {
+			return ((iterable instanceof Collection) ? SIZED : 0) | ((iterable instanceof List) ? ORDERED : 0);
+		}
+	}
+
+	/**
+	 * The Splittable returned by map(Iterable, Function), which is split by mapping the parts of its source.
+	 */
+	private static final class MapIterable<T,R> implements Splittable<R>, Pushable<R> {
+		private final Iterable<T> iterable;
+		private final Function<T,R> f;
+
+		private MapIterable(final Iterable<T> iterable, final Function<T,R> f) {
+			this.iterable = iterable;
+			this.f = f;
+		}
+
+		public Iterator<R> iterator() {
+			return map(iterable.iterator(), f);
+		}
+
+		public void push(final Consumer<R> consumer) {
+			Fn.push(iterable, new Consumer<T>() {
+				public void accept(T t) {
+					consumer.accept(f.apply(t));
+				};
+			});
+		}
+
+		public List<Splittable<R>> trySplit() {
+			List<Splittable<T>> sourceParts = splittable(iterable).trySplit();
+			if(sourceParts == null) return null;
+			List<Splittable<R>> parts = new ArrayList<Splittable<R>>(sourceParts.size());
+			for(Splittable<T> sourcePart: sourceParts) {
+				parts.add(new MapIterable<T,R>(sourcePart, f));
+			}
+			return parts;
+		}
+
+		public long estimateSize() {
+			return splittable(iterable).estimateSize();
+		}
+
+		public int characteristics() {
+			return splittable(iterable).characteristics() & ~NONNULL;
+		}
+	}
+
+	/**
+	 * The Splittable returned by filter(Iterable, Predicate), which is split by filtering the parts of its source.
+	 * Its estimated size is the size of its source, which is just an upper bound.
+	 */
+	private static final class FilterIterable<T> implements Splittable<T>, Pushable<T> {
+		private final Iterable<T> iterable;
+		private final Predicate<T> p;
+
+		private FilterIterable(final Iterable<T> iterable, final Predicate<T> p) {
+			this.iterable = iterable;
+			this.p = p;
+		}
+
+		public Iterator<T> iterator() {
+			return filter(iterable.iterator(), p);
+		}
+
+		public void push(final Consumer<T> consumer) {
+			Fn.push(iterable, new Consumer<T>() {
+				public void accept(T t) {
+					// Null elements are skipped, as filter(Iterator, Predicate) does
+					if(p.test(t) && (t != null)) consumer.accept(t);
+				};
+			});
+		}
+
+		public List<Splittable<T>> trySplit() {
+			List<Splittable<T>> sourceParts = splittable(iterable).trySplit();
+			if(sourceParts == null) return null;
+			List<Splittable<T>> parts = new ArrayList<Splittable<T>>(sourceParts.size());
+			for(Splittable<T> sourcePart: sourceParts) {
+				parts.add(new FilterIterable<T>(sourcePart, p));
+			}
+			return parts;
+		}
+
+		public long estimateSize() {
+			return splittable(iterable).estimateSize();
+		}
+
+		public int characteristics() {
+			return splittable(iterable).characteristics() & ~(SIZED | SUBSIZED);
+		}
+	}
+
+	/**
+	 * The Splittable returned by flatten(Iterable), which is split by flattening the parts of its outer iterable. Its size is unknown.
+	 */
+	private static final class FlattenIterable<T> implements Splittable<T>, Pushable<T> {
+		private final Iterable<Iterable<T>> iterableOfIterables;
+
+		private FlattenIterable(final Iterable<Iterable<T>> iterableOfIterables) {
+			this.iterableOfIterables = iterableOfIterables;
+		}
+
+		public Iterator<T> iterator() {
+			Function<Iterable<T>,Iterator<T>> iterableToIterator = new Function<Iterable<T>,Iterator<T>>() {
+				public Iterator<T> apply(Iterable<T> iterable) {
+					return iterable.iterator();
+				};
+			};
+			return flatten(map(iterableOfIterables.iterator(), iterableToIterator));
+		}
+
+		public void push(final Consumer<T> consumer) {
+			Fn.push(iterableOfIterables, new Consumer<Iterable<T>>() {
+				public void accept(Iterable<T> iterable) {
+					Fn.push(iterable, consumer);
+				};
+			});
+		}
+
+		public List<Splittable<T>> trySplit() {
+			List<Splittable<Iterable<T>>> outerParts = splittable(iterableOfIterables).trySplit();
+			if(outerParts == null) return null;
+			List<Splittable<T>> parts = new ArrayList<Splittable<T>>(outerParts.size());
+			for(Splittable<Iterable<T>> outerPart: outerParts) {
+				parts.add(new FlattenIterable<T>(outerPart));
+			}
+			return parts;
+		}
+
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		public int characteristics() {
+			return splittable(iterableOfIterables).characteristics() & ORDERED;
+		}
+	}
+
+	/**
+	 * The Splittable returned by concat(Iterable, Iterable), which is split into its two input iterables.
+	 */
+	private static final class ConcatIterable<T> implements Splittable<T>, Pushable<T> {
+		private final Iterable<T> iterable1;
+		private final Iterable<T> iterable2;
+
+		private ConcatIterable(final Iterable<T> iterable1, final Iterable<T> iterable2) {
+			this.iterable1 = iterable1;
+			this.iterable2 = iterable2;
+		}
+
+		public Iterator<T> iterator() {
+			return concat(iterable1.iterator(), iterable2.iterator());
+		}
+
+		public void push(final Consumer<T> consumer) {
+			Fn.push(iterable1, consumer);
+			Fn.push(iterable2, consumer);
+		}
+
+		public List<Splittable<T>> trySplit() {
+			List<Splittable<T>> parts = new ArrayList<Splittable<T>>(2);
+			parts.add(splittable(iterable1));
+			parts.add(splittable(iterable2));
+			return parts;
+		}
+
+		public long estimateSize() {
+			long size = splittable(iterable1).estimateSize() + splittable(iterable2).estimateSize();
+			return (size < 0) ? Long.MAX_VALUE : size; // Overflow means the size is too big to be known
+		}
+
+		public int characteristics() {
+			int characteristics = splittable(iterable1).characteristics() & splittable(iterable2).characteristics();
+			if(splittable(iterable1).estimateSize() + splittable(iterable2).estimateSize() < 0) characteristics &= ~(SIZED | SUBSIZED);
+			return characteristics & (ORDERED | SIZED | NONNULL | SUBSIZED);
+		}
+	}
+
+	/**
+	 * Creates an IntIterator returning the values from an array of ints
+	 * 
+	 * @param	array	an array of ints
+	 * @return			the newly created IntIterator object
+	 */
+	public static IntIterator intIteratorOf(final int[] array) {
+		return new IntIterator() {
+			private int index = 0;
+			public int nextInt() {
+				if(this.hasNext()) {
+					return array[index++];
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				return (index < array.length);
+			};
+		};
+	}
+
+	/**
+	 * Returns an IntIterator consisting of the results of applying the given function to the elements of a given iterator.
+	 */
+	public static <T> IntIterator mapToInt(final Iterator<T> iterator, final ToIntFunction<T> f) {
+		return new IntIterator() {
+			public int nextInt() { return f.applyAsInt(iterator.next()); };
+			public boolean hasNext() { return iterator.hasNext(); };
+		};
+	}
+
+	/**
+	 * Returns an IntIterator consisting of the results of applying the given operator to the elements of a given IntIterator.
+	 */
+	public static IntIterator map(final IntIterator iterator, final IntUnaryOperator f) {
+		return new IntIterator() {
+			public int nextInt() { return f.applyAsInt(iterator.nextInt()); };
+			public boolean hasNext() { return iterator.hasNext(); };
+		};
+	}
+
+	/**
+	 * Returns an IntIterator consisting of the elements of this IntIterator that match the given predicate.
+	 */
+	public static IntIterator filter(final IntIterator iterator, final IntPredicate p) {
+		return new IntIterator() {
+			private boolean hasCachedFilteredNext = false;
+			private int cachedFilteredNext;
+			public int nextInt() {
+				if(this.hasNext()) {
+					hasCachedFilteredNext = false;
+					return cachedFilteredNext;
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				int readNext;
+				while((!hasCachedFilteredNext) && iterator.hasNext()) {
+					readNext = iterator.nextInt();
+					if(p.test(readNext)) {
+						cachedFilteredNext = readNext;
+						hasCachedFilteredNext = true;
+					}
+				}
+				return hasCachedFilteredNext;
+			};
+		};
+	}
+
+	/**
+	 * Performs a reduction on the elements of the provided IntIterator, using the provided identity value and an associative accumulation function, and returns the reduced value.
+	 */
+	public static int reduce(final IntIterator iterator, int identity, final IntBinaryOperator accumulator) {
+		int accumulated = identity;
+		while(iterator.hasNext()) {
+			accumulated = accumulator.applyAsInt(accumulated, iterator.nextInt());
+		}
+		return accumulated;
+	}
+
+	/**
+	 * Returns the sum of the elements of the provided IntIterator, or zero if it has no elements.
+	 */
+	public static int sum(final IntIterator iterator) {
+		int sum = 0;
+		while(iterator.hasNext()) {
+			sum += iterator.nextInt();
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the minimum element of the provided IntIterator.
+	 * 
+	 * @throws	NoSuchElementException	if the iterator has no elements
+	 */
+	public static int min(final IntIterator iterator) {
+		if(!iterator.hasNext()) throw(new NoSuchElementException());
+		int min = iterator.nextInt();
+		while(iterator.hasNext()) {
+			min = Math.min(min, iterator.nextInt());
+		}
+		return min;
+	}
+
+	/**
+	 * Returns the maximum element of the provided IntIterator.
+	 * 
+	 * @throws	NoSuchElementException	if the iterator has no elements
+	 */
+	public static int max(final IntIterator iterator) {
+		if(!iterator.hasNext()) throw(new NoSuchElementException());
+		int max = iterator.nextInt();
+		while(iterator.hasNext()) {
+			max = Math.max(max, iterator.nextInt());
+		}
+		return max;
+	}
+
+	/**
+	 * Stores the elements from the IntIterator into an int array
+	 */
+	public static int[] collectToArray(final IntIterator iterator) {
+		int[] array = new int[16];
+		int size = 0;
+		while(iterator.hasNext()) {
+			if(size == array.length) array = Arrays.copyOf(array, size << 1);
+			array[size++] = iterator.nextInt();
+		}
+		return Arrays.copyOf(array, size);
+	}
+
+	/**
+	 * Creates a LongIterator returning the values from an array of longs
+	 * 
+	 * @param	array	an array of longs
+	 * @return			the newly created LongIterator object
+	 */
+	public static LongIterator longIteratorOf(final long[] array) {
+		return new LongIterator() {
+			private int index = 0;
+			public long nextLong() {
+				if(this.hasNext()) {
+					return array[index++];
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				return (index < array.length);
+			};
+		};
+	}
+
+	/**
+	 * Returns a LongIterator consisting of the results of applying the given function to the elements of a given iterator.
+	 */
+	public static <T> LongIterator mapToLong(final Iterator<T> iterator, final ToLongFunction<T> f) {
+		return new LongIterator() {
+			public long nextLong() { return f.applyAsLong(iterator.next()); };
+			public boolean hasNext() { return iterator.hasNext(); };
+		};
+	}
+
+	/**
+	 * Returns a LongIterator consisting of the results of applying the given operator to the elements of a given LongIterator.
+	 */
+	public static LongIterator map(final LongIterator iterator, final LongUnaryOperator f) {
+		return new LongIterator() {
+			public long nextLong() { return f.applyAsLong(iterator.nextLong()); };
+			public boolean hasNext() { return iterator.hasNext(); };
+		};
+	}
+
+	/**
+	 * Returns a LongIterator consisting of the elements of this LongIterator that match the given predicate.
+	 */
+	public static LongIterator filter(final LongIterator iterator, final LongPredicate p) {
+		return new LongIterator() {
+			private boolean hasCachedFilteredNext = false;
+			private long cachedFilteredNext;
+			public long nextLong() {
+				if(this.hasNext()) {
+					hasCachedFilteredNext = false;
+					return cachedFilteredNext;
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				long readNext;
+				while((!hasCachedFilteredNext) && iterator.hasNext()) {
+					readNext = iterator.nextLong();
+					if(p.test(readNext)) {
+						cachedFilteredNext = readNext;
+						hasCachedFilteredNext = true;
+					}
+				}
+				return hasCachedFilteredNext;
+			};
+		};
+	}
+
+	/**
+	 * Performs a reduction on the elements of the provided LongIterator, using the provided identity value and an associative accumulation function, and returns the reduced value.
+	 */
+	public static long reduce(final LongIterator iterator, long identity, final LongBinaryOperator accumulator) {
+		long accumulated = identity;
+		while(iterator.hasNext()) {
+			accumulated = accumulator.applyAsLong(accumulated, iterator.nextLong());
+		}
+		return accumulated;
+	}
+
+	/**
+	 * Returns the sum of the elements of the provided LongIterator, or zero if it has no elements.
+	 */
+	public static long sum(final LongIterator iterator) {
+		long sum = 0;
+		while(iterator.hasNext()) {
+			sum += iterator.nextLong();
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the minimum element of the provided LongIterator.
+	 * 
+	 * @throws	NoSuchElementException	if the iterator has no elements
+	 */
+	public static long min(final LongIterator iterator) {
+		if(!iterator.hasNext()) throw(new NoSuchElementException());
+		long min = iterator.nextLong();
+		while(iterator.hasNext()) {
+			min = Math.min(min, iterator.nextLong());
+		}
+		return min;
+	}
+
+	/**
+	 * Returns the maximum element of the provided LongIterator.
+	 * 
+	 * @throws	NoSuchElementException	if the iterator has no elements
+	 */
+	public static long max(final LongIterator iterator) {
+		if(!iterator.hasNext()) throw(new NoSuchElementException());
+		long max = iterator.nextLong();
+		while(iterator.hasNext()) {
+			max = Math.max(max, iterator.nextLong());
+		}
+		return max;
+	}
+
+	/**
+	 * Stores the elements from the LongIterator into a long array
+	 */
+	public static long[] collectToArray(final LongIterator iterator) {
+		long[] array = new long[16];
+		int size = 0;
+		while(iterator.hasNext()) {
+			if(size == array.length) array = Arrays.copyOf(array, size << 1);
+			array[size++] = iterator.nextLong();
+		}
+		return Arrays.copyOf(array, size);
+	}
+
+	/**
+	 * Creates a DoubleIterator returning the values from an array of doubles
+	 * 
+	 * @param	array	an array of doubles
+	 * @return			the newly created DoubleIterator object
+	 */
+	public static DoubleIterator doubleIteratorOf(final double[] array) {
+		return new DoubleIterator() {
+			private int index = 0;
+			public double nextDouble() {
+				if(this.hasNext()) {
+					return array[index++];
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				return (index < array.length);
+			};
+		};
+	}
+
+	/**
+	 * Returns a DoubleIterator consisting of the results of applying the given function to the elements of a given iterator.
+	 */
+	public static <T> DoubleIterator mapToDouble(final Iterator<T> iterator, final ToDoubleFunction<T> f) {
+		return new DoubleIterator() {
+			public double nextDouble() { return f.applyAsDouble(iterator.next()); };
+			public boolean hasNext() { return iterator.hasNext(); };
+		};
+	}
+
+	/**
+	 * Returns a DoubleIterator consisting of the results of applying the given operator to the elements of a given DoubleIterator.
+	 */
+	public static DoubleIterator map(final DoubleIterator iterator, final DoubleUnaryOperator f) {
+		return new DoubleIterator() {
+			public double nextDouble() { return f.applyAsDouble(iterator.nextDouble()); };
+			public boolean hasNext() { return iterator.hasNext(); };
+		};
+	}
+
+	/**
+	 * Returns a DoubleIterator consisting of the elements of this DoubleIterator that match the given predicate.
+	 */
+	public static DoubleIterator filter(final DoubleIterator iterator, final DoublePredicate p) {
+		return new DoubleIterator() {
+			private boolean hasCachedFilteredNext = false;
+			private double cachedFilteredNext;
+			public double nextDouble() {
+				if(this.hasNext()) {
+					hasCachedFilteredNext = false;
+					return cachedFilteredNext;
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				double readNext;
+				while((!hasCachedFilteredNext) && iterator.hasNext()) {
+					readNext = iterator.nextDouble();
+					if(p.test(readNext)) {
+						cachedFilteredNext = readNext;
+						hasCachedFilteredNext = true;
+					}
+				}
+				return hasCachedFilteredNext;
+			};
+		};
+	}
+
+	/**
+	 * Performs a reduction on the elements of the provided DoubleIterator, using the provided identity value and an associative accumulation function, and returns the reduced value.
+	 */
+	public static double reduce(final DoubleIterator iterator, double identity, final DoubleBinaryOperator accumulator) {
+		double accumulated = identity;
+		while(iterator.hasNext()) {
+			accumulated = accumulator.applyAsDouble(accumulated, iterator.nextDouble());
+		}
+		return accumulated;
+	}
+
+	/**
+	 * Returns the sum of the elements of the provided DoubleIterator, or zero if it has no elements.
+	 */
+	public static double sum(final DoubleIterator iterator) {
+		double sum = 0;
+		while(iterator.hasNext()) {
+			sum += iterator.nextDouble();
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the minimum element of the provided DoubleIterator.
+	 * 
+	 * @throws	NoSuchElementException	if the iterator has no elements
+	 */
+	public static double min(final DoubleIterator iterator) {
+		if(!iterator.hasNext()) throw(new NoSuchElementException());
+		double min = iterator.nextDouble();
+		while(iterator.hasNext()) {
+			min = Math.min(min, iterator.nextDouble());
+		}
+		return min;
+	}
+
+	/**
+	 * Returns the maximum element of the provided DoubleIterator.
+	 * 
+	 * @throws	NoSuchElementException	if the iterator has no elements
+	 */
+	public static double max(final DoubleIterator iterator) {
+		if(!iterator.hasNext()) throw(new NoSuchElementException());
+		double max = iterator.nextDouble();
+		while(iterator.hasNext()) {
+			max = Math.max(max, iterator.nextDouble());
+		}
+		return max;
+	}
+
+	/**
+	 * Stores the elements from the DoubleIterator into a double array
+	 */
+	public static double[] collectToArray(final DoubleIterator iterator) {
+		double[] array = new double[16];
+		int size = 0;
+		while(iterator.hasNext()) {
+			if(size == array.length) array = Arrays.copyOf(array, size << 1);
+			array[size++] = iterator.nextDouble();
+		}
+		return Arrays.copyOf(array, size);
+	}
+
+	/**
+	 * Creates a Pipeline over the elements of the given iterable, to which map, filter and flatMap stages can be appended.
+	 * 
+	 * @param	iterable	the source of the pipeline
+	 * @return				the newly created Pipeline object, with no stages
+	 */
+	public static <T> Pipeline<T> pipeline(final Iterable<T> iterable) {
+		return new Pipeline<T>(iterable, new int[0], new Object[0]);
+	}
+
+	/**
+	 * A chain of map, filter and flatMap stages over a source iterable, which are run in one loop per element.
+	 *
+	 * Nesting calls to map and filter wraps every stage into its own Iterator, so each element pays a hasNext()/next() pair per stage.
+	 * A Pipeline just records its stages, and its iterators run every source element through all of them in a single loop,
+	 * which saves those intermediate iterators and their hasNext()/next() calls. It does not remove the stages themselves:
+	 * each one is still a switch on its kind followed by an interface call to its function or predicate,
+	 * so a Pipeline only pays off over plain map and filter when there are several stages.
+	 * Pipelines are immutable (every stage method returns a new Pipeline), so the same Pipeline can be iterated or extended many times.
+	 */
+	public static final class Pipeline<T> implements Splittable<T>, Pushable<T> {
+		private static final int MAP = 0;
+		private static final int FILTER = 1;
+		private static final int FLAT_MAP = 2;
+
+		private final Iterable<?> source;
+		private final int[] kinds;
+		private final Object[] stages;
+
+		private Pipeline(final Iterable<?> source, final int[] kinds, final Object[] stages) {
+			this.source = source;
+			this.kinds = kinds;
+			this.stages = stages;
+		}
+
+		private <R> Pipeline<R> append(final int kind, final Object stage) {
+			int[] newKinds = new int[kinds.length + 1];
+			Object[] newStages = new Object[stages.length + 1];
+			System.arraycopy(kinds, 0, newKinds, 0, kinds.length);
+			System.arraycopy(stages, 0, newStages, 0, stages.length);
+			newKinds[kinds.length] = kind;
+			newStages[stages.length] = stage;
+			return new Pipeline<R>(source, newKinds, newStages);
+		}
+
+		/**
+		 * Returns a pipeline with a new stage applying the given function to each element.
+		 */
+		public <R> Pipeline<R> map(final Function<T,R> f) {
+			return append(MAP, f);
+		}
+
+		/**
+		 * Returns a pipeline with a new stage keeping only the elements that match the given predicate.
+		 */
+		public Pipeline<T> filter(final Predicate<T> p) {
+			return append(FILTER, p);
+		}
+
+		/**
+		 * Returns a pipeline with a new stage replacing each element with the elements of the iterable the given function maps it to.
+		 */
+		public <R> Pipeline<R> flatMap(final Function<T,Iterable<R>> f) {
+			return append(FLAT_MAP, f);
+		}
+
+		public Iterator<T> iterator() {
+			return new FusedIterator<T>(source.iterator(), kinds, stages);
+		}
+
+		@SuppressWarnings("unchecked")
+		public void push(final Consumer<T> consumer) {
+			Fn.push((Iterable<Object>) source, new StagesConsumer(0, (Consumer<Object>) consumer));
+		}
+
+		/**
+		 * Runs every element it accepts through the stages of the pipeline starting at a given one, in a single loop.
+		 * A flatMap stage pushes the elements of its inner iterable to another StagesConsumer starting at the next stage.
+		 */
+		private final class StagesConsumer implements Consumer<Object> {
+			private final int firstStage;
+			private final Consumer<Object> consumer;
+
+			private StagesConsumer(final int firstStage, final Consumer<Object> consumer) {
+				this.firstStage = firstStage;
+				this.consumer = consumer;
+			}
+
+			@SuppressWarnings("unchecked")
+			public void accept(Object value) {
+				for(int stage = firstStage; stage < kinds.length; stage++) {
+					switch(kinds[stage]) {
+					case MAP:
+						value = ((Function<Object,Object>) stages[stage]).apply(value);
+						break;
+					case FILTER:
+						if(!((Predicate<Object>) stages[stage]).test(value)) return;
+						break;
+					default:
+						Fn.push(((Function<Object,Iterable<Object>>) stages[stage]).apply(value), new StagesConsumer(stage + 1, consumer));
+						return;
+					}
+				}
+				consumer.accept(value);
+			}
+		}
+
+		/**
+		 * Splits the source of this pipeline, and returns a pipeline with the same stages over each part.
+		 */
+		public List<Splittable<T>> trySplit() {
+			List<? extends Splittable<?>> sourceParts = splittable(source).trySplit();
+			if(sourceParts == null) return null;
+			List<Splittable<T>> parts = new ArrayList<Splittable<T>>(sourceParts.size());
+			for(Splittable<?> sourcePart: sourceParts) {
+				parts.add(new Pipeline<T>(sourcePart, kinds, stages));
+			}
+			return parts;
+		}
+
+		/**
+		 * Returns the estimated size of the source, or Long.MAX_VALUE if there is a flatMap stage.
+		 */
+		public long estimateSize() {
+			for(int kind: kinds) {
+				if(kind == FLAT_MAP) return Long.MAX_VALUE;
+			}
+			return splittable(source).estimateSize();
+		}
+
+		public int characteristics() {
+			int characteristics = splittable(source).characteristics() & (ORDERED | SIZED | SUBSIZED);
+			for(int kind: kinds) {
+				if(kind != MAP) characteristics &= ORDERED;
+			}
+			return characteristics;
+		}
+	}
+
+	/**
+	 * The Iterator behind a Pipeline. Every flatMap stage keeps the iterator of its current inner iterable,
+	 * so elements are taken from the innermost flatMap stage with pending elements before pulling again from the source.
+	 */
+	private static final class FusedIterator<T> extends StageIterator<T> {
+		private final Iterator<?> source;
+		private final int[] kinds;
+		private final Object[] stages;
+		private final int[] flatMapStages; // The positions of the flatMap stages, in ascending order
+		private final int[] flatMapIndex; // For each flatMap stage, its index within flatMapStages
+		private final Iterator<?>[] innerIterators;
+		private boolean ready = false;
+		private T readyNext = null;
+
+		private FusedIterator(final Iterator<?> source, final int[] kinds, final Object[] stages) {
+			super(source);
+			this.source = source;
+			this.kinds = kinds;
+			this.stages = stages;
+			int flatMapCount = 0;
+			for(int kind: kinds) {
+				if(kind == Pipeline.FLAT_MAP) flatMapCount++;
+			}
+			this.flatMapStages = new int[flatMapCount];
+			this.flatMapIndex = new int[kinds.length];
+			this.innerIterators = new Iterator<?>[flatMapCount];
+			for(int stage = 0, j = 0; stage < kinds.length; stage++) {
+				if(kinds[stage] == Pipeline.FLAT_MAP) {
+					flatMapStages[j] = stage;
+					flatMapIndex[stage] = j++;
+				}
+			}
+		}
+
+		public T next() {
+			if(this.hasNext()) {
+				T next = readyNext;
+				readyNext = null;
+				ready = false;
+				return next;
+			} else {
+				throw(new NoSuchElementException());
+			}
+		};
+
+		public boolean hasNext() {
+			if(!ready) ready = advance();
+			return ready;
+		};
+
+		public void remove() { throw(new UnsupportedOperationException()); };
+
+		/**
+		 * Closes the iterators of the pending inner iterables, from the innermost one, and then the source
+		 */
+		public void close() throws IOException {
+			try {
+				for(int j = innerIterators.length - 1; j >= 0; j--) {
+					if(innerIterators[j] instanceof Closeable) ((Closeable) innerIterators[j]).close();
+					innerIterators[j] = null;
+				}
+			} finally {
+				super.close();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private boolean advance() {
+			nextElement:
+			while(true) {
+				Object value = null;
+				int stage = -1;
+				for(int j = innerIterators.length - 1; j >= 0; j--) {
+					if(innerIterators[j] != null) {
+						if(innerIterators[j].hasNext()) {
+							value = innerIterators[j].next();
+							stage = flatMapStages[j] + 1;
+							break;
+						} else {
+							innerIterators[j] = null;
+						}
+					}
+				}
+				if(stage < 0) {
+					if(!source.hasNext()) return false;
+					value = source.next();
+					stage = 0;
+				}
+				for(; stage < kinds.length; stage++) {
+					switch(kinds[stage]) {
+					case Pipeline.MAP:
+						value = ((Function<Object,Object>) stages[stage]).apply(value);
+						break;
+					case Pipeline.FILTER:
+						if(!((Predicate<Object>) stages[stage]).test(value)) continue nextElement;
+						break;
+					default:
+						innerIterators[flatMapIndex[stage]] = ((Function<Object,Iterable<Object>>) stages[stage]).apply(value).iterator();
+						continue nextElement;
+					}
+				}
+				readyNext = (T) value;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * The policies for choosing which entry a full cache behind memoize evicts to make room for a new one
+	 */
+	public static enum Eviction {
+		/**
+		 * Evicts the least recently used entry
+		 */
+		LRU,
+		/**
+		 * Evicts the least frequently used entry among a random sample of entries, whose use counts are halved from time to time so that old hits fade
+		 */
+		LFU
+	}
+
+	/**
+	 * Returns a function caching the results of the given function for up to maxEntries arguments, evicting the least recently used one when full.
+	 * See memoize(Function, int, Eviction, int)
+	 */
+	public static <T,R> MemoizedFunction<T,R> memoize(final Function<T,R> f, final int maxEntries) {
+		return memoize(f, maxEntries, Eviction.LRU, 1);
+	}
+
+	/**
+	 * Returns a function caching the results of the given function for up to maxEntries arguments, evicting entries with the given policy when full.
+	 * See memoize(Function, int, Eviction, int)
+	 */
+	public static <T,R> MemoizedFunction<T,R> memoize(final Function<T,R> f, final int maxEntries, final Eviction eviction) {
+		return memoize(f, maxEntries, eviction, 1);
+	}
+
+	/**
+	 * Returns a function caching the results of the given function for up to maxEntries arguments, evicting entries with the given policy when full.
+	 * 
+	 * The cache is divided into concurrencyLevel segments by the hash code of the argument, each one with its own lock and a share of maxEntries,
+	 * so threads calling the function with different arguments seldom wait for each other. The given function is called without holding any lock,
+	 * so two threads missing the same argument at the same time will both compute it.
+	 * Arguments are compared with equals, and null arguments and results are cached as any other.
+	 * 
+	 * @param	f					the function to memoize
+	 * @param	maxEntries			the maximum number of cached results
+	 * @param	eviction			the policy choosing the entry to evict when the cache is full
+	 * @param	concurrencyLevel	the number of segments of the cache (1 for a single lock)
+	 * @return						the newly created MemoizedFunction object
+	 */
+	public static <T,R> MemoizedFunction<T,R> memoize(final Function<T,R> f, final int maxEntries, final Eviction eviction, final int concurrencyLevel) {
+		if(maxEntries < 1) throw(new IllegalArgumentException("maxEntries must be positive: " + maxEntries));
+		if(concurrencyLevel < 1) throw(new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel));
+		return new SegmentedMemoizedFunction<T,R>(f, maxEntries, eviction, Math.min(concurrencyLevel, maxEntries));
+	}
+
+	/**
+	 * Returns a function caching the results of the given function, where exactly one thread computes the result for each argument:
+	 * threads calling it with an argument whose result is being computed wait for that computation instead of repeating it.
+	 * The cache is unbounded and its results never expire, see memoizeSingleFlight(Function, long, TimeUnit)
+	 */
+	public static <T,R> MemoizedFunction<T,R> memoizeSingleFlight(final Function<T,R> f) {
+		return new SingleFlightMemoizedFunction<T,R>(f, 0);
+	}
+
+	/**
+	 * Returns a function caching the results of the given function, where exactly one thread computes the result for each argument:
+	 * threads calling it with an argument whose result is being computed wait for that computation instead of repeating it.
+	 * 
+	 * The in-flight and computed results are kept in a ConcurrentHashMap, so threads calling the function with different arguments do not wait for each other.
+	 * A result expires once the given time has elapsed since it was computed, and it is then computed again by the next call with its argument.
+	 * If the function throws an exception, all the threads waiting for that result get the exception, and the result is not cached.
+	 * 
+	 * @param	f			the function to memoize
+	 * @param	expiry		the time a computed result is kept in the cache, or 0 for results which never expire
+	 * @param	unit		the unit of the expiry time
+	 * @return				the newly created MemoizedFunction object
+	 */
+	public static <T,R> MemoizedFunction<T,R> memoizeSingleFlight(final Function<T,R> f, final long expiry, final TimeUnit unit) {
+		if(expiry < 0) throw(new IllegalArgumentException("expiry must not be negative: " + expiry));
+		return new SingleFlightMemoizedFunction<T,R>(f, unit.toNanos(expiry));
+	}
+
+	/**
+	 * Returns a function caching the results of the given two-argument function, where exactly one thread computes the result for each pair of arguments.
+	 * See memoizeSingleFlight(Function)
+	 */
+	public static <T,U,R> BiFunction<T,U,R> memoizeSingleFlight(final BiFunction<T,U,R> f) {
+		return memoizeSingleFlight(f, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns a function caching the results of the given two-argument function, where exactly one thread computes the result for each pair of arguments.
+	 * See memoizeSingleFlight(Function, long, TimeUnit)
+	 */
+	public static <T,U,R> BiFunction<T,U,R> memoizeSingleFlight(final BiFunction<T,U,R> f, final long expiry, final TimeUnit unit) {
+		final MemoizedFunction<Pair<T,U>,R> memoized = memoizeSingleFlight(new Function<Pair<T,U>,R>() {
+			public R apply(Pair<T,U> arguments) {
+				return f.apply(arguments.first, arguments.second);
+			};
+		}, expiry, unit);
+		return new BiFunction<T,U,R>() {
+			public R apply(T t, U u) {
+				return memoized.apply(new Pair<T,U>(t, u));
+			};
+		};
+	}
+
+	/**
+	 * A function caching the results of another function, as returned by memoize and memoizeSingleFlight.
+	 */
+	public static abstract class MemoizedFunction<T,R> implements Function<T,R> {
+		private MemoizedFunction() {
+		}
+
+		/**
+		 * Returns the number of calls whose result was found in the cache (or was being computed by another thread)
+		 */
+		public abstract long hitCount();
+
+		/**
+		 * Returns the number of calls whose result had to be computed
+		 */
+		public abstract long missCount();
+
+		/**
+		 * Returns the number of results evicted from the cache to make room for new ones, or because they expired
+		 */
+		public abstract long evictionCount();
+
+		/**
+		 * Returns the number of cached results
+		 */
+		public abstract int size();
+
+		/**
+		 * Removes all the cached results (the counters are kept)
+		 */
+		public abstract void clear();
+	}
+
+	/**
+	 * The MemoizedFunction returned by memoize, whose cache is divided into segments with a lock each.
+	 * Counters of hits, misses and evictions are kept per segment.
+	 */
+	private static final class SegmentedMemoizedFunction<T,R> extends MemoizedFunction<T,R> {
+		private static final Object NULL = new Object(); // Stands for a cached null result
+
+		private final Function<T,R> f;
+		private final MemoCache<T>[] segments;
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private SegmentedMemoizedFunction(final Function<T,R> f, final int maxEntries, final Eviction eviction, final int segmentCount) {
+			this.f = f;
+			this.segments = new MemoCache[segmentCount];
+			for(int i = 0; i < segmentCount; i++) {
+				// Spread the entries evenly, the first segments taking one more if they do not divide exactly
+				int segmentMaxEntries = maxEntries / segmentCount + ((i < maxEntries % segmentCount) ? 1 : 0);
+				segments[i] = (eviction == Eviction.LRU) ? new LruCache<T>(segmentMaxEntries) : new LfuCache<T>(segmentMaxEntries);
+			}
+		}
+
+		private MemoCache<T> segmentFor(final T t) {
+			int hash = (t == null) ? 0 : t.hashCode();
+			hash ^= (hash >>> 16);
+			return segments[(hash & 0x7fffffff) % segments.length];
+		}
+
+		@SuppressWarnings("unchecked")
+		public R apply(T t) {
+			MemoCache<T> segment = segmentFor(t);
+			Object cached;
+			synchronized(segment) {
+				cached = segment.get(t);
+				if(cached != null) {
+					segment.hits++;
+				} else {
+					segment.misses++;
+				}
+			}
+			if(cached != null) return (cached == NULL) ? null : (R) cached;
+			R result = f.apply(t);
+			synchronized(segment) {
+				segment.put(t, (result == null) ? NULL : result);
+			}
+			return result;
+		}
+
+		public long hitCount() {
+			long hits = 0;
+			for(MemoCache<T> segment: segments) {
+				synchronized(segment) { hits += segment.hits; }
+			}
+			return hits;
+		}
+
+		public long missCount() {
+			long misses = 0;
+			for(MemoCache<T> segment: segments) {
+				synchronized(segment) { misses += segment.misses; }
+			}
+			return misses;
+		}
+
+		public long evictionCount() {
+			long evictions = 0;
+			for(MemoCache<T> segment: segments) {
+				synchronized(segment) { evictions += segment.evictions; }
+			}
+			return evictions;
+		}
+
+		public int size() {
+			int size = 0;
+			for(MemoCache<T> segment: segments) {
+				synchronized(segment) { size += segment.size(); }
+			}
+			return size;
+		}
+
+		public void clear() {
+			for(MemoCache<T> segment: segments) {
+				synchronized(segment) { segment.clear(); }
+			}
+		}
+	}
+
+	/**
+	 * A segment of the cache of a MemoizedFunction, which is always accessed holding its lock
+	 */
+	private static abstract class MemoCache<K> {
+		protected final int maxEntries;
+		protected long hits = 0;
+		protected long misses = 0;
+		protected long evictions = 0;
+
+		protected MemoCache(final int maxEntries) {
+			this.maxEntries = maxEntries;
+		}
+
+		/**
+		 * Returns the cached value for the key, or null if there is none
+		 */
+		protected abstract Object get(K key);
+
+		/**
+		 * Caches a (non null) value for the key, evicting another entry if the cache is full
+		 */
+		protected abstract void put(K key, Object value);
+
+		protected abstract int size();
+
+		protected abstract void clear();
+	}
+
+	/**
+	 * A memoization cache evicting the least recently used entry, as kept by an access ordered LinkedHashMap
+	 */
+	private static final class LruCache<K> extends MemoCache<K> {
+		private final LinkedHashMap<K,Object> entries;
+
+		private LruCache(final int maxEntries) {
+			super(maxEntries);
+			this.entries = new LinkedHashMap<K,Object>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				protected boolean removeEldestEntry(Map.Entry<K,Object> eldest) {
+					if(size() > LruCache.this.maxEntries) {
+						evictions++;
+						return true;
+					} else {
+						return false;
+					}
+				};
+			};
+		}
+
+		protected Object get(final K key) {
+			return entries.get(key);
+		}
+
+		protected void put(final K key, final Object value) {
+			entries.put(key, value);
+		}
+
+		protected int size() {
+			return entries.size();
+		}
+
+		protected void clear() {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * A memoization cache evicting the least frequently used entry of a random sample, which approximates LFU without keeping the entries sorted.
+	 * The entries are also kept in an array, so that sampling them and removing one (by moving the last one into its place) take constant time.
+	 */
+	private static final class LfuCache<K> extends MemoCache<K> {
+		private static final int SAMPLE_SIZE = 8;
+
+		private final Map<K,LfuEntry<K>> entries = new HashMap<K,LfuEntry<K>>();
+		private final List<LfuEntry<K>> entryList = new ArrayList<LfuEntry<K>>();
+		private final Random random = new Random();
+		private long accessesUntilAging;
+
+		private LfuCache(final int maxEntries) {
+			super(maxEntries);
+			this.accessesUntilAging = agingPeriod();
+		}
+
+		private long agingPeriod() {
+			return 10L * maxEntries;
+		}
+
+		/**
+		 * Halves the use counts every 10 * maxEntries accesses, so entries which were popular long ago can be evicted
+		 */
+		private void age() {
+			if(--accessesUntilAging > 0) return;
+			accessesUntilAging = agingPeriod();
+			for(LfuEntry<K> entry: entryList) {
+				entry.frequency >>>= 1;
+			}
+		}
+
+		protected Object get(final K key) {
+			LfuEntry<K> entry = entries.get(key);
+			if(entry == null) return null;
+			age();
+			entry.frequency++;
+			return entry.value;
+		}
+
+		protected void put(final K key, final Object value) {
+			LfuEntry<K> entry = entries.get(key);
+			if(entry != null) {
+				entry.value = value;
+				return;
+			}
+			if(entries.size() >= maxEntries) {
+				LfuEntry<K> victim = entryList.get(random.nextInt(entryList.size()));
+				for(int i = 1; i < SAMPLE_SIZE; i++) {
+					LfuEntry<K> candidate = entryList.get(random.nextInt(entryList.size()));
+					if(candidate.frequency < victim.frequency) victim = candidate;
+				}
+				LfuEntry<K> last = entryList.remove(entryList.size() - 1);
+				if(last != victim) {
+					entryList.set(victim.index, last);
+					last.index = victim.index;
+				}
+				entries.remove(victim.key);
+				evictions++;
+			}
+			age();
+			entry = new LfuEntry<K>(key, value, entryList.size());
+			entries.put(key, entry);
+			entryList.add(entry);
+		}
+
+		protected int size() {
+			return entries.size();
+		}
+
+		protected void clear() {
+			entries.clear();
+			entryList.clear();
+		}
+	}
+
+	/**
+	 * An entry of LfuCache, with its access count (halved when the cache ages) and its position in the array of entries
+	 */
+	private static final class LfuEntry<K> {
+		private final K key;
+		private Object value;
+		private long frequency = 1;
+		private int index;
+
+		private LfuEntry(final K key, final Object value, final int index) {
+			this.key = key;
+			this.value = value;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * The MemoizedFunction returned by memoizeSingleFlight. The first thread missing an argument puts a FutureTask for it into the map
+	 * with putIfAbsent and runs it, while any other thread finding the task just waits for its result.
+	 */
+	private static final class SingleFlightMemoizedFunction<T,R> extends MemoizedFunction<T,R> {
+		private static final Object NULL_KEY = new Object(); // Stands for a null argument, as ConcurrentHashMap does not take null keys
+		private static final int MISSES_BETWEEN_PURGES = 1024;
+
+		private final Function<T,R> f;
+		private final long expiryNanos;
+		private final ConcurrentHashMap<Object,Flight<R>> flights = new ConcurrentHashMap<Object,Flight<R>>();
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong evictions = new AtomicLong();
+
+		private SingleFlightMemoizedFunction(final Function<T,R> f, final long expiryNanos) {
+			this.f = f;
+			this.expiryNanos = expiryNanos;
+		}
+
+		public R apply(final T t) {
+			Object key = (t == null) ? NULL_KEY : t;
+			Flight<R> flight = flights.get(key);
+			if((flight != null) && isExpired(flight, System.nanoTime())) {
+				if(flights.remove(key, flight)) evictions.incrementAndGet();
+				flight = null;
+			}
+			if(flight == null) {
+				Flight<R> newFlight = new Flight<R>(new Callable<R>() {
+					public R call() {
+						return f.apply(t);
+					};
+				});
+				flight = flights.putIfAbsent(key, newFlight);
+				if(flight == null) {
+					flight = newFlight;
+					if((misses.incrementAndGet() % MISSES_BETWEEN_PURGES == 0) && (expiryNanos > 0)) purgeExpired();
+					newFlight.task.run();
+				} else {
+					hits.incrementAndGet();
+				}
+			} else {
+				hits.incrementAndGet();
+			}
+			try {
+				return getResult(flight.task);
+			} finally {
+				// A failed computation is not cached, so that the next call retries it
+				if(flight.task.isDone() && flight.failed()) flights.remove(key, flight);
+			}
+		}
+
+		private boolean isExpired(final Flight<R> flight, final long now) {
+			return (expiryNanos > 0) && flight.task.isDone() && (now - flight.computedAt >= expiryNanos);
+		}
+
+		/**
+		 * Removes all the expired results, so that the map does not keep growing with arguments which are not used anymore
+		 */
+		private void purgeExpired() {
+			long now = System.nanoTime();
+			for(Map.Entry<Object,Flight<R>> entry: flights.entrySet()) {
+				if(isExpired(entry.getValue(), now) && flights.remove(entry.getKey(), entry.getValue())) evictions.incrementAndGet();
+			}
+		}
+
+		public long hitCount() {
+			return hits.get();
+		}
+
+		public long missCount() {
+			return misses.get();
+		}
+
+		public long evictionCount() {
+			return evictions.get();
+		}
+
+		public int size() {
+			return flights.size();
+		}
+
+		public void clear() {
+			flights.clear();
+		}
+	}
+
+	/**
+	 * The computation of a result of a SingleFlightMemoizedFunction, and the time when it finished
+	 */
+	private static final class Flight<R> {
+		private final FutureTask<R> task;
+		private volatile long computedAt;
+
+		/**
+		 * Creates a flight whose task runs the given computation. The task stamps computedAt before it completes,
+		 * so any thread seeing task.isDone() also sees the stamp.
+		 */
+		private Flight(final Callable<R> computation) {
+			this.task = new FutureTask<R>(new Callable<R>() {
+				public R call() throws Exception {
+					R result = computation.call();
+					computedAt = System.nanoTime();
+					return result;
+				};
+			});
+		}
+
+		/**
+		 * Returns whether the (finished) computation threw an exception
+		 */
+		private boolean failed() {
+			try {
+				task.get();
+				return false;
+			} catch(ExecutionException e) {
+				return true;
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * A pair of values with value equality, used as the key of a memoized two-argument function
+	 */
+	private static final class Pair<T,U> {
+		private final T first;
+		private final U second;
+
+		private Pair(final T first, final U second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		public boolean equals(final Object o) {
+			if(!(o instanceof Pair)) return false;
+			Pair<?,?> other = (Pair<?,?>) o;
+			return ((first == null) ? (other.first == null) : first.equals(other.first))
+				&& ((second == null) ? (other.second == null) : second.equals(other.second));
+		}
+
+		public int hashCode() {
+			return 31 * ((first == null) ? 0 : first.hashCode()) + ((second == null) ? 0 : second.hashCode());
+		}
+	}
+
+	/**
+	 * Returns an iterable with the elements of the given iterable, which are pulled from it only once and kept in memory to be replayed.
+	 * 
+	 * The elements are pulled lazily, only as far as the most advanced of the iterators of the returned iterable has gone, and the iterators
+	 * behind it (including those created later) replay them from memory. This avoids running the whole chain of stages of a map, filter or flatten
+	 * again on every iteration. The iterators can be used from different threads at the same time, and they share a single iterator of the given iterable.
+	 * The elements are kept in chunks of 1024, so growing the cache never copies them.
+	 * 
+	 * @param	iterable	the iterable whose elements will be cached
+	 * @return				the newly created Iterable object
+	 */
+	public static <T> Iterable<T> cache(final Iterable<T> iterable) {
+		return new CachedIterable<T>(iterable);
+	}
+
+	/**
+	 * The Iterable returned by cache(Iterable). The source iterator is only used while holding the lock of this object, which also guards
+	 * appending the elements to the chunks. The number of cached elements is volatile and it is written after storing each element,
+	 * so iterators reading the cached elements below that number need no lock.
+	 */
+	private static final class CachedIterable<T> implements Iterable<T> {
+		private static final int CHUNK_SHIFT = 10;
+		private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+		private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+		private final Iterable<T> iterable;
+		private Iterator<T> source = null;
+		private boolean exhausted = false;
+		private volatile Object[][] chunks = new Object[16][];
+		private volatile int size = 0;
+
+		private CachedIterable(final Iterable<T> iterable) {
+			this.iterable = iterable;
+		}
+
+		/**
+		 * Pulls one more element from the source if the element at the given index is not cached yet,
+		 * and returns whether the element at that index exists
+		 */
+		private synchronized boolean fill(final int index) {
+			if(index < size) return true;
+			if(exhausted) return false;
+			if(source == null) source = iterable.iterator();
+			if(!source.hasNext()) {
+				exhausted = true;
+				source = null;
+				return false;
+			}
+			T element = source.next();
+			int chunk = size >>> CHUNK_SHIFT;
+			Object[][] currentChunks = chunks;
+			if(chunk == currentChunks.length) currentChunks = Arrays.copyOf(currentChunks, chunk << 1);
+			if(currentChunks[chunk] == null) currentChunks[chunk] = new Object[CHUNK_SIZE];
+			currentChunks[chunk][size & CHUNK_MASK] = element;
+			chunks = currentChunks;
+			size = size + 1;
+			return true;
+		}
+
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private int index = 0;
+				@SuppressWarnings("unchecked")
+				public T next() {
+					if(this.hasNext()) {
+						T next = (T) chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+						index++;
+						return next;
+					} else {
+						throw(new NoSuchElementException());
+					}
+				};
+				public boolean hasNext() {
+					return (index < size) || fill(index);
+				};
+				public void remove() { throw(new UnsupportedOperationException()); };
+			};
+		}
+	}
+
+	/**
+	 * Returns an iterable with the elements of the given iterable, which are pulled from it only once to be replayed, keeping the first
+	 * maxInMemory elements in memory and spilling the rest to a temporary file. See cache(Iterable, int, Serializer, File)
+	 */
+	public static <T> SpillingCache<T> cache(final Iterable<T> iterable, final int maxInMemory, final Serializer<T> serializer) {
+		return cache(iterable, maxInMemory, serializer, null);
+	}
+
+	/**
+	 * Returns an iterable with the elements of the given iterable, which are pulled from it only once to be replayed, keeping the first
+	 * maxInMemory elements in memory and spilling the rest to a temporary file in the given directory.
+	 * 
+	 * As with cache(Iterable), the elements are pulled lazily, only as far as the most advanced iterator has gone, and the iterators can be used
+	 * from different threads at the same time. Each iterator replays the spilled elements through its own buffered reader of the file.
+	 * The temporary file is created when the first element is spilled, and it is deleted by close() (or when the virtual machine exits).
+	 * 
+	 * @param	iterable	the iterable whose elements will be cached
+	 * @param	maxInMemory	the number of leading elements kept in memory
+	 * @param	serializer	the serializer writing the elements to the temporary file and reading them back
+	 * @param	directory	the directory of the temporary file, or null for the default temporary-file directory
+	 * @return				the newly created SpillingCache object
+	 */
+	public static <T> SpillingCache<T> cache(final Iterable<T> iterable, final int maxInMemory, final Serializer<T> serializer, final File directory) {
+		if(maxInMemory < 0) throw(new IllegalArgumentException("maxInMemory must not be negative: " + maxInMemory));
+		return new SpillingCache<T>(iterable, maxInMemory, serializer, directory);
+	}
+
+	/**
+	 * The Iterable returned by cache(Iterable, int, Serializer), which must be closed to delete its temporary file.
+	 * 
+	 * Elements from maxInMemory onwards are appended to the temporary file through a buffered stream, which is only flushed when an iterator
+	 * needs to read an element that is still in its buffer. Each element is serialized into a scratch buffer first and only then appended,
+	 * so that a serializer failing halfway through an element does not leave a partial record in the file.
+	 * As in CachedIterable, pulling from the source takes the lock of this object, and the volatile counts of cached and flushed elements
+	 * let iterators read the elements below them without locking. Iterators check the volatile closed flag before reading an element.
+	 */
+	public static final class SpillingCache<T> implements Iterable<T>, Closeable {
+		private static final int CHUNK_SHIFT = 10;
+		private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+		private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+		private static final int BUFFER_SIZE = 1 << 16;
+
+		private final Iterable<T> iterable;
+		private final int maxInMemory;
+		private final Serializer<T> serializer;
+		private final File directory;
+		private Iterator<T> source = null;
+		private boolean exhausted = false;
+		private volatile Object[][] chunks = new Object[16][];
+		private volatile int size = 0;
+		private volatile int flushedSize = 0;
+		private volatile boolean closed = false;
+		private File file = null;
+		private DataOutputStream out = null;
+		private ByteArrayOutputStream scratch = null;
+		private DataOutputStream scratchOut = null;
+		private volatile FileChannel in = null;
+
+		private SpillingCache(final Iterable<T> iterable, final int maxInMemory, final Serializer<T> serializer, final File directory) {
+			this.iterable = iterable;
+			this.maxInMemory = maxInMemory;
+			this.serializer = serializer;
+			this.directory = directory;
+		}
+
+		/**
+		 * Pulls one more element from the source if the element at the given index is not cached yet,
+		 * and returns whether the element at that index exists
+		 */
+		private synchronized boolean fill(final int index) {
+			if(index < size) return true;
+			if(closed) throw(new IllegalStateException("The cache is closed"));
+			if(exhausted) return false;
+			if(source == null) source = iterable.iterator();
+			if(!source.hasNext()) {
+				exhausted = true;
+				source = null;
+				return false;
+			}
+			T element = source.next();
+			if(size < maxInMemory) {
+				int chunk = size >>> CHUNK_SHIFT;
+				Object[][] currentChunks = chunks;
+				if(chunk == currentChunks.length) currentChunks = Arrays.copyOf(currentChunks, chunk << 1);
+				if(currentChunks[chunk] == null) currentChunks[chunk] = new Object[CHUNK_SIZE];
+				currentChunks[chunk][size & CHUNK_MASK] = element;
+				chunks = currentChunks;
+			} else {
+				try {
+					if(out == null) {
+						file = File.createTempFile("jfnlite", ".spill", directory);
+						file.deleteOnExit();
+						out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+						in = new RandomAccessFile(file, "r").getChannel();
+						scratch = new ByteArrayOutputStream();
+						scratchOut = new DataOutputStream(scratch);
+					}
+					scratch.reset();
+					serializer.write(element, scratchOut);
+					scratchOut.flush();
+					scratch.writeTo(out);
+				} catch(IOException e) {
+					throw(new UncheckedIOException(e));
+				}
+			}
+			size = size + 1;
+			return true;
+		}
+
+		/**
+		 * Flushes the spilled elements, so that iterators can read all the cached elements from the file
+		 */
+		private synchronized void flush() {
+			if(closed) throw(new IllegalStateException("The cache is closed"));
+			try {
+				if(out != null) out.flush();
+			} catch(IOException e) {
+				throw(new UncheckedIOException(e));
+			}
+			flushedSize = size;
+		}
+
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private int index = 0;
+				private DataInputStream reader = null;
+				@SuppressWarnings("unchecked")
+				public T next() {
+					if(!this.hasNext()) throw(new NoSuchElementException());
+					Object[][] currentChunks = chunks;
+					// close() sets closed before it drops the chunks, so seeing it unset after reading them means they are the cached ones
+					if(closed) throw(new IllegalStateException("The cache is closed"));
+					T next;
+					if(index < maxInMemory) {
+						next = (T) currentChunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+					} else {
+						if(index >= flushedSize) flush();
+						if(reader == null) reader = new DataInputStream(new BufferedInputStream(new ChannelInputStream(in, 0), BUFFER_SIZE));
+						try {
+							next = serializer.read(reader);
+						} catch(IOException e) {
+							throw(new UncheckedIOException(e));
+						}
+					}
+					index++;
+					return next;
+				};
+				public boolean hasNext() {
+					if(closed) throw(new IllegalStateException("The cache is closed"));
+					return (index < size) || fill(index);
+				};
+				public void remove() { throw(new UnsupportedOperationException()); };
+			};
+		}
+
+		/**
+		 * Deletes the temporary file and releases the cached elements. The iterators of this cache cannot be used afterwards.
+		 */
+		public synchronized void close() throws IOException {
+			if(closed) return;
+			closed = true;
+			chunks = new Object[0][];
+			source = null;
+			scratch = null;
+			scratchOut = null;
+			try {
+				if(out != null) out.close();
+			} finally {
+				try {
+					if(in != null) in.close();
+				} finally {
+					if(file != null) file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * An InputStream reading a FileChannel from a given position with positional reads, which do not change the position of the channel,
+	 * so that several streams can read the same channel at the same time
+	 */
+	private static final class ChannelInputStream extends InputStream {
+		private final FileChannel channel;
+		private long position;
+
+		private ChannelInputStream(final FileChannel channel, final long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return (read(single, 0, 1) < 0) ? -1 : (single[0] & 0xff);
+		}
+
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if(len == 0) return 0;
+			int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if(read > 0) position += read;
+			return read;
+		}
+	}
+
+	/**
+	 * Returns an iterator with the elements of the given iterator, which are read ahead by a new background (daemon) thread.
+	 * See prefetch(Iterator, int, Executor)
+	 */
+	public static <T> PrefetchIterator<T> prefetch(final Iterator<T> iterator, final int bufferSize) {
+		return prefetch(iterator, bufferSize, new Executor() {
+			public void execute(Runnable command) {
+				Thread thread = new Thread(command, "jfnlite-prefetch");
+				thread.setDaemon(true);
+				thread.start();
+			};
+		});
+	}
+
+	/**
+	 * Returns an iterator with the elements of the given iterator, which are read ahead by a task of the given executor.
+	 * 
+	 * The task drains the given iterator into a queue of up to bufferSize elements, so that the consumer only waits when the queue is empty,
+	 * overlapping a slow (e.g. I/O bound) source with the processing of the elements. An exception thrown by the given iterator is thrown
+	 * by the hasNext() or next() call reaching its position. The task runs until the source is exhausted or the returned iterator is cancelled,
+	 * and then closes the source if it is Closeable.
+	 * 
+	 * @param	iterator	the source elements, which will be read by the prefetching task only
+	 * @param	bufferSize	the maximum number of elements read ahead
+	 * @param	executor	the executor running the prefetching task, which takes one of its threads until the source is exhausted
+	 * @return				the newly created PrefetchIterator object
+	 */
+	public static <T> PrefetchIterator<T> prefetch(final Iterator<T> iterator, final int bufferSize, final Executor executor) {
+		if(bufferSize < 1) throw(new IllegalArgumentException("bufferSize must be positive: " + bufferSize));
+		PrefetchIterator<T> prefetchIterator = new PrefetchIterator<T>(iterator, bufferSize);
+		executor.execute(prefetchIterator.producer);
+		return prefetchIterator;
+	}
+
+	/**
+	 * The Iterator returned by prefetch, whose elements are handed off by the producer task through a bounded blocking queue.
+	 * The producer puts an END marker after the last element, or a Failure with the exception thrown by the source.
+	 * 
+	 * The producer waits for room in the queue with timed offers, rechecking whether the iterator was cancelled between them,
+	 * so that it never stays blocked on the queue of a cancelled iterator. If it is interrupted, it leaves its Failure in the terminal field
+	 * (besides offering it to the queue, which may be full) and the consumer takes it from there once the queue is drained and the task is done.
+	 */
+	public static final class PrefetchIterator<T> implements Iterator<T>, Closeable {
+		private static final Object NULL = new Object(); // Stands for a null element, as blocking queues do not take null elements
+		private static final Object END = new Object();
+		private static final long WAIT_MILLIS = 100;
+
+		private final Iterator<T> source;
+		private final BlockingQueue<Object> queue;
+		private final FutureTask<Void> producer;
+		private final AtomicBoolean started = new AtomicBoolean(false); // Set by the producer task when it runs, or by cancel() to keep it from running
+		private volatile boolean cancelled = false;
+		private volatile Object terminal = null;
+		private Object readyNext = null;
+
+		private PrefetchIterator(final Iterator<T> iterator, final int bufferSize) {
+			this.source = iterator;
+			this.queue = new ArrayBlockingQueue<Object>(bufferSize);
+			this.producer = new FutureTask<Void>(new Callable<Void>() {
+				public Void call() {
+					if(!started.compareAndSet(false, true)) return null;
+					try {
+						while(!cancelled && iterator.hasNext()) {
+							T element = iterator.next();
+							if(!handOff((element == null) ? NULL : element)) return null;
+						}
+						handOff(END);
+					} catch(InterruptedException e) {
+						interrupted(new Failure(new RuntimeException(e)));
+					} catch(RuntimeException e) {
+						fail(e);
+					} catch(Error e) {
+						fail(e);
+					} finally {
+						closeSource();
+					}
+					return null;
+				};
+			});
+		}
+
+		/**
+		 * Puts a value into the queue as soon as there is room for it, unless this iterator is cancelled meanwhile.
+		 * 
+		 * @return	whether the value was put into the queue
+		 */
+		private boolean handOff(final Object value) throws InterruptedException {
+			while(!cancelled) {
+				if(queue.offer(value, WAIT_MILLIS, TimeUnit.MILLISECONDS)) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Hands off the exception or error thrown by the source to the consumer
+		 */
+		private void fail(final Throwable throwable) {
+			Failure failure = new Failure(throwable);
+			try {
+				handOff(failure);
+			} catch(InterruptedException e) {
+				interrupted(failure);
+			}
+		}
+
+		/**
+		 * Leaves the last value of an interrupted producer where the consumer finds it, as there may be no room for it in the queue
+		 */
+		private void interrupted(final Failure failure) {
+			terminal = failure;
+			queue.offer(failure);
+			Thread.currentThread().interrupt();
+		}
+
+		private void closeSource() {
+			if(source instanceof Closeable) {
+				try {
+					((Closeable) source).close();
+				} catch(IOException ignored) {
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		public T next() {
+			if(this.hasNext()) {
+				Object next = readyNext;
+				readyNext = null;
+				return (next == NULL) ? null : (T) next;
+			} else {
+				throw(new NoSuchElementException());
+			}
+		};
+
+		public boolean hasNext() {
+			if(cancelled) return false;
+			if(readyNext == null) {
+				try {
+					while((readyNext = queue.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+						// The task may have ended without getting its last value into the queue, if it was interrupted
+						if(producer.isDone() && ((readyNext = queue.poll()) == null)) {
+							readyNext = (terminal != null) ? terminal : new Failure(new IllegalStateException("The prefetching task ended without its last element"));
+							break;
+						}
+					}
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw(new RuntimeException(e));
+				}
+			}
+			if(readyNext instanceof Failure) {
+				Throwable failure = ((Failure) readyNext).throwable;
+				readyNext = END;
+				if(failure instanceof Error) throw((Error) failure);
+				throw((RuntimeException) failure);
+			}
+			return (readyNext != END);
+		};
+
+		public void remove() { throw(new UnsupportedOperationException()); };
+
+		/**
+		 * Stops the prefetching task, interrupting it if it is reading the source, and discards the elements read ahead.
+		 * The task stops waiting for room in the queue within a fraction of a second, and then closes the source if it is Closeable.
+		 * A source blocked in a call which does not respond to interruption will only stop once that call returns.
+		 * If the task has not started yet, it will not run, and the source is closed here instead.
+		 * Afterwards this iterator has no more elements.
+		 */
+		public void cancel() {
+			cancelled = true;
+			producer.cancel(true);
+			if(started.compareAndSet(false, true)) closeSource();
+			queue.clear();
+			readyNext = null;
+		}
+
+		/**
+		 * Cancels this iterator, see cancel(), so that the operations closing the iterators they stop reading early also stop the prefetching task
+		 */
+		public void close() {
+			cancel();
+		}
+	}
+
+	/**
+	 * An exception or error thrown by a source, handed off to the consumer of a PrefetchIterator
+	 */
+	private static final class Failure {
+		private final Throwable throwable;
+
+		private Failure(final Throwable throwable) {
+			this.throwable = throwable;
+		}
+	}
+
+	/**
+	 * Returns an iterator of lists with consecutive elements of the given iterator, all of them with the given size except the last one, which may be smaller.
+	 * Every list is a new ArrayList, see batch(Iterator, int, boolean)
+	 */
+	public static <T> Iterator<List<T>> batch(final Iterator<T> iterator, final int size) {
+		return batch(iterator, size, false);
+	}
+
+	/**
+	 * Returns an iterator of lists with consecutive elements of the given iterator, all of them with the given size except the last one, which may be smaller.
+	 * 
+	 * When reuseBuffer is true, every call to next() clears and refills the same list instead of allocating a new one,
+	 * so each batch is only valid until the following call to next(), and it must not be kept or modified.
+	 * 
+	 * @param	iterator	the source elements
+	 * @param	size		the number of elements of each batch
+	 * @param	reuseBuffer	whether every batch reuses the list of the previous one
+	 * @return				the newly created Iterator object
+	 */
+	public static <T> Iterator<List<T>> batch(final Iterator<T> iterator, final int size, final boolean reuseBuffer) {
+		if(size < 1) throw(new IllegalArgumentException("size must be positive: " + size));
+		return new StageIterator<List<T>>(iterator) {
+			private List<T> buffer = null;
+			public List<T> next() {
+				if(this.hasNext()) {
+					if(reuseBuffer && (buffer != null)) {
+						buffer.clear();
+					} else {
+						buffer = new ArrayList<T>(size);
+					}
+					while((buffer.size() < size) && iterator.hasNext()) {
+						buffer.add(iterator.next());
+					}
+					return buffer;
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				return iterator.hasNext();
+			};
+			public void remove() { throw(new UnsupportedOperationException()); };
+		};
+	}
+
+	/**
+	 * Returns an iterable of lists with consecutive elements of the given iterable, see batch(Iterator, int, boolean)
+	 */
+	public static <T> Iterable<List<T>> batch(final Iterable<T> iterable, final int size, final boolean reuseBuffer) {
+		return new Iterable<List<T>>() {
+			public Iterator<List<T>> iterator() { return batch(iterable.iterator(), size, reuseBuffer); }
+		};
+	}
+
+	/**
+	 * Returns an iterable of lists with consecutive elements of the given iterable, see batch(Iterator, int)
+	 */
+	public static <T> Iterable<List<T>> batch(final Iterable<T> iterable, final int size) {
+		return batch(iterable, size, false);
+	}
+
+	/**
+	 * Returns an iterator consisting of the concatenated results of applying the given function to batches of consecutive elements of a given iterator,
+	 * so that the function can process many elements at once (e.g. a bulk insert or a vectorized computation).
+	 * 
+	 * All the batches reuse the same list, see batch(Iterator, int, boolean), so the function must not keep it.
+	 * The function may return the list itself, since the next batch is only read once all the results of the previous one have been returned.
+	 * 
+	 * @param	iterator	the source elements
+	 * @param	size		the number of elements of each batch (the last one may be smaller)
+	 * @param	f			the function mapping a batch of elements to their results
+	 * @return				the newly created Iterator object
+	 */
+	public static <T,R> Iterator<R> mapBatches(final Iterator<T> iterator, final int size, final Function<List<T>,List<R>> f) {
+		return flatten(map(batch(iterator, size, true), new Function<List<T>,Iterator<R>>() {
+			public Iterator<R> apply(List<T> batch) {
+				return f.apply(batch).iterator();
+			};
+		}));
+	}
+
+	/**
+	 * Returns an iterable consisting of the concatenated results of applying the given function to batches of consecutive elements of a given iterable,
+	 * see mapBatches(Iterator, int, Function)
+	 */
+	public static <T,R> Iterable<R> mapBatches(final Iterable<T> iterable, final int size, final Function<List<T>,List<R>> f) {
+		return new Iterable<R>() {
+			public Iterator<R> iterator() { return mapBatches(iterable.iterator(), size, f); }
+		};
+	}
+
+	/**
+	 * The algorithms for choosing the next element among the heads of the sources merged by mergeSorted
+	 */
+	public static enum Merge {
+		/**
+		 * Keeps the heads in a binary heap, which takes up to 2 log2(k) comparisons per element
+		 */
+		HEAP,
+		/**
+		 * Keeps the heads in a tournament tree of losers, which takes about log2(k) comparisons per element and is faster when merging many sources
+		 */
+		LOSER_TREE
+	}
+
+	/**
+	 * Lazily merges the given sorted iterators into a single sorted iterator, see mergeSorted(Iterable, Comparator, Merge)
+	 */
+	public static <T> Iterator<T> mergeSorted(final Iterable<Iterator<T>> sources, final Comparator<T> comparator) {
+		return mergeSorted(sources, comparator, Merge.HEAP);
+	}
+
+	/**
+	 * Lazily merges the given iterators, each one sorted according to the given comparator, into a single sorted iterator.
+	 * 
+	 * Only the head of each source is kept in memory, and choosing the next element takes O(log k) comparisons, being k the number of sources.
+	 * The merge is stable: equal elements are returned in the order of their sources, and within a source in their original order.
+	 * 
+	 * @param	sources		the sorted iterators to be merged, which are read once when the merge starts
+	 * @param	comparator	the comparator every source is sorted by
+	 * @param	merge		the algorithm used to choose the next element
+	 * @return				the newly created Iterator object
+	 */
+	public static <T> Iterator<T> mergeSorted(final Iterable<Iterator<T>> sources, final Comparator<T> comparator, final Merge merge) {
+		if(merge == Merge.LOSER_TREE) {
+			return new LoserTreeMergeIterator<T>(sources, comparator);
+		} else {
+			return new HeapMergeIterator<T>(sources, comparator);
+		}
+	}
+
+	/**
+	 * The base of the iterators returned by mergeSorted, which keeps the current head of every source, indexed as the sources,
+	 * and leaves to its subclasses keeping track of which head goes next
+	 */
+	private static abstract class MergeIterator<T> implements Iterator<T> {
+		private final Iterable<Iterator<T>> sources;
+		protected final Comparator<T> comparator;
+		protected List<Iterator<T>> iterators = null;
+		protected Object[] heads;
+
+		private MergeIterator(final Iterable<Iterator<T>> sources, final Comparator<T> comparator) {
+			this.sources = sources;
+			this.comparator = comparator;
+		}
+
+		/**
+		 * Whether the head of source a goes before the head of source b, breaking ties by source index
+		 */
+		@SuppressWarnings("unchecked")
+		protected final boolean precedes(final int a, final int b) {
+			int comparison = comparator.compare((T) heads[a], (T) heads[b]);
+			return (comparison < 0) || ((comparison == 0) && (a < b));
+		}
+
+		/**
+		 * Reads the first element of every source, returning whether each one has any element
+		 */
+		private boolean[] start() {
+			iterators = new ArrayList<Iterator<T>>();
+			for(Iterator<T> source: sources) {
+				iterators.add(source);
+			}
+			heads = new Object[iterators.size()];
+			boolean[] started = new boolean[iterators.size()];
+			for(int i = 0; i < started.length; i++) {
+				Iterator<T> iterator = iterators.get(i);
+				if(iterator.hasNext()) {
+					heads[i] = iterator.next();
+					started[i] = true;
+				}
+			}
+			return started;
+		}
+
+		/**
+		 * Arranges the sources which have started, once their first elements are in heads
+		 */
+		protected abstract void build(final boolean[] started);
+
+		/**
+		 * The index of the source whose head is the next element, or -1 if all of them are exhausted
+		 */
+		protected abstract int winner();
+
+		/**
+		 * Restores the order after the head of the winner source has been replaced, or the source has been exhausted
+		 */
+		protected abstract void replace(final int source, final boolean exhausted);
+
+		@SuppressWarnings("unchecked")
+		public T next() {
+			if(this.hasNext()) {
+				int source = winner();
+				T result = (T) heads[source];
+				Iterator<T> iterator = iterators.get(source);
+				if(iterator.hasNext()) {
+					heads[source] = iterator.next();
+					replace(source, false);
+				} else {
+					heads[source] = null;
+					replace(source, true);
+				}
+				return result;
+			} else {
+				throw(new NoSuchElementException());
+			}
+		};
+		public boolean hasNext() {
+			if(iterators == null) {
+				build(start());
+			}
+			return winner() >= 0;
+		};
+		public void remove() { throw(new UnsupportedOperationException()); };
+	}
+
+	/**
+	 * The sources which have not been exhausted are kept in a binary heap ordered by their heads, so that the winner is at its root
+	 * and replacing its head only sifts it down
+	 */
+	private static final class HeapMergeIterator<T> extends MergeIterator<T> {
+		private int[] heap;
+		private int size = 0;
+
+		private HeapMergeIterator(final Iterable<Iterator<T>> sources, final Comparator<T> comparator) {
+			super(sources, comparator);
+		}
+
+		protected void build(final boolean[] started) {
+			heap = new int[started.length];
+			for(int i = 0; i < started.length; i++) {
+				if(started[i]) heap[size++] = i;
+			}
+			for(int i = (size >>> 1) - 1; i >= 0; i--) {
+				siftDown(i);
+			}
+		}
+
+		protected int winner() {
+			return (size > 0) ? heap[0] : -1;
+		}
+
+		protected void replace(final int source, final boolean exhausted) {
+			if(exhausted) {
+				heap[0] = heap[--size];
+			}
+			siftDown(0);
+		}
+
+		private void siftDown(final int index) {
+			int i = index;
+			int source = heap[i];
+			int half = size >>> 1;
+			while(i < half) {
+				int child = (i << 1) + 1;
+				int right = child + 1;
+				if((right < size) && precedes(heap[right], heap[child])) {
+					child = right;
+				}
+				if(!precedes(heap[child], source)) break;
+				heap[i] = heap[child];
+				i = child;
+			}
+			if(size > 0) heap[i] = source;
+		}
+	}
+
+	/**
+	 * The k sources are the leaves k..2k-1 of a complete binary tree, every internal node 1..k-1 keeps the loser of the match played there,
+	 * and node 0 keeps the overall winner, so replacing it only replays the matches on the path from its leaf to the root
+	 */
+	private static final class LoserTreeMergeIterator<T> extends MergeIterator<T> {
+		private int[] tree;
+		private boolean[] exhausted;
+
+		private LoserTreeMergeIterator(final Iterable<Iterator<T>> sources, final Comparator<T> comparator) {
+			super(sources, comparator);
+		}
+
+		/**
+		 * Whether source a wins the match against source b, an exhausted source losing against any other
+		 */
+		private boolean beats(final int a, final int b) {
+			if(exhausted[a]) return false;
+			if(exhausted[b]) return true;
+			return precedes(a, b);
+		}
+
+		protected void build(final boolean[] started) {
+			int k = started.length;
+			exhausted = new boolean[k];
+			for(int i = 0; i < k; i++) {
+				exhausted[i] = !started[i];
+			}
+			tree = new int[Math.max(k, 1)];
+			if(k == 0) {
+				tree[0] = -1;
+				return;
+			}
+			int[] winners = new int[k << 1];
+			for(int i = 0; i < k; i++) {
+				winners[k + i] = i;
+			}
+			for(int node = k - 1; node >= 1; node--) {
+				int a = winners[node << 1];
+				int b = winners[(node << 1) + 1];
+				if(beats(a, b)) {
+					winners[node] = a;
+					tree[node] = b;
+				} else {
+					winners[node] = b;
+					tree[node] = a;
+				}
+			}
+			tree[0] = (k > 1) ? winners[1] : 0;
+		}
+
+		protected int winner() {
+			int source = tree[0];
+			return ((source < 0) || exhausted[source]) ? -1 : source;
+		}
+
+		protected void replace(final int source, final boolean sourceExhausted) {
+			exhausted[source] = sourceExhausted;
+			int winner = source;
+			for(int node = (source + exhausted.length) >>> 1; node >= 1; node >>>= 1) {
+				if(beats(tree[node], winner)) {
+					int loser = winner;
+					winner = tree[node];
+					tree[node] = loser;
+				}
+			}
+			tree[0] = winner;
+		}
+	}
+
+	/**
+	 * Returns an iterator with the elements of the given iterator sorted in memory according to the given comparator.
+	 * The sort is stable, and all the elements are read by the first call to hasNext() or next().
+	 */
+	public static <T> Iterator<T> sorted(final Iterator<T> iterator, final Comparator<T> comparator) {
+		return new Iterator<T>() {
+			private Iterator<T> sortedIterator = null;
+			public T next() {
+				if(this.hasNext()) {
+					return sortedIterator.next();
+				} else {
+					throw(new NoSuchElementException());
+				}
+			};
+			public boolean hasNext() {
+				if(sortedIterator == null) {
+					List<T> list = collectToList(iterator);
+					Collections.sort(list, comparator);
+					sortedIterator = list.iterator();
+				}
+				return sortedIterator.hasNext();
+			};
+			public void remove() { throw(new UnsupportedOperationException()); };
+		};
+	}
+
+	/**
+	 * Returns an iterable with the elements of the given iterable sorted in memory according to the given comparator, see sorted(Iterator, Comparator)
+	 */
+	public static <T> Iterable<T> sorted(final Iterable<T> iterable, final Comparator<T> comparator) {
+		return new Iterable<T>() {
+			public Iterator<T> iterator() { return sorted(iterable.iterator(), comparator); }
+		};
+	}
+
+	/**
+	 * Returns an iterator with the elements of the given iterator sorted according to the given comparator with an external merge sort,
+	 * so that the number of elements is not limited by the heap size.
+	 * 
+	 * The first call to hasNext() or next() reads all the elements in runs of options.runSize() elements, each one sorted in memory and
+	 * written to a temporary file, except the last one. While there are more runs than options.fanIn(), groups of consecutive runs are merged
+	 * into bigger ones. The remaining runs are then merged lazily by mergeSorted as the elements are returned, so that only the current run
+	 * and a buffer for each file are kept in memory. The sort is stable.
+	 * 
+	 * The temporary files are deleted as soon as they have been merged, when the iterator is exhausted, or by close().
+	 * 
+	 * @param	iterator	the elements to be sorted
+	 * @param	comparator	the comparator defining the order
+	 * @param	options		the serializer of the elements, the size of the runs, the fan-in of the merges and the temporary directory
+	 * @return				the newly created SortedIterator object
+	 */
+	public static <T> SortedIterator<T> sorted(final Iterator<T> iterator, final Comparator<T> comparator, final SortOptions<T> options) {
+		return new SortedIterator<T>(iterator, comparator, options);
+	}
+
+	/**
+	 * Returns an iterable with the elements of the given iterable sorted according to the given comparator with an external merge sort,
+	 * see sorted(Iterator, Comparator, SortOptions). Each iterator sorts the elements again.
+	 */
+	public static <T> Iterable<T> sorted(final Iterable<T> iterable, final Comparator<T> comparator, final SortOptions<T> options) {
+		return new Iterable<T>() {
+			public Iterator<T> iterator() { return sorted(iterable.iterator(), comparator, options); }
+		};
+	}
+
+	/**
+	 * The settings of the external merge sort done by sorted(Iterator, Comparator, SortOptions).
+	 * 
+	 * Like Pipeline, this class is immutable: each method setting an option returns a new SortOptions object,
+	 * e.g. new SortOptions<String>(serializer).runSize(1000000).fanIn(16)
+	 */
+	public static final class SortOptions<T> {
+		public static final int DEFAULT_RUN_SIZE = 1 << 16;
+		public static final int DEFAULT_FAN_IN = 64;
+
+		private final Serializer<T> serializer;
+		private final int runSize;
+		private final int fanIn;
+		private final File directory;
+		private final Merge merge;
+
+		/**
+		 * Creates the default options for the given serializer: runs of DEFAULT_RUN_SIZE elements, merges of up to DEFAULT_FAN_IN runs
+		 * with a loser tree, and temporary files in the default temporary-file directory
+		 */
+		public SortOptions(final Serializer<T> serializer) {
+			this(serializer, DEFAULT_RUN_SIZE, DEFAULT_FAN_IN, null, Merge.LOSER_TREE);
+		}
+
+		private SortOptions(final Serializer<T> serializer, final int runSize, final int fanIn, final File directory, final Merge merge) {
+			if(runSize < 1) throw(new IllegalArgumentException("runSize must be positive: " + runSize));
+			if(fanIn < 2) throw(new IllegalArgumentException("fanIn must be at least 2: " + fanIn));
+			this.serializer = serializer;
+			this.runSize = runSize;
+			this.fanIn = fanIn;
+			this.directory = directory;
+			this.merge = merge;
+		}
+
+		/**
+		 * Returns these options with the given number of elements sorted in memory for each run
+		 */
+		public SortOptions<T> runSize(final int runSize) {
+			return new SortOptions<T>(serializer, runSize, fanIn, directory, merge);
+		}
+
+		/**
+		 * Returns these options with the given maximum number of runs merged at once, each one with its own file buffer
+		 */
+		public SortOptions<T> fanIn(final int fanIn) {
+			return new SortOptions<T>(serializer, runSize, fanIn, directory, merge);
+		}
+
+		/**
+		 * Returns these options with the given directory for the temporary files, or null for the default temporary-file directory
+		 */
+		public SortOptions<T> directory(final File directory) {
+			return new SortOptions<T>(serializer, runSize, fanIn, directory, merge);
+		}
+
+		/**
+		 * Returns these options with the given algorithm for merging the runs
+		 */
+		public SortOptions<T> merge(final Merge merge) {
+			return new SortOptions<T>(serializer, runSize, fanIn, directory, merge);
+		}
+
+		public Serializer<T> serializer() { return serializer; }
+		public int runSize() { return runSize; }
+		public int fanIn() { return fanIn; }
+		public File directory() { return directory; }
+		public Merge merge() { return merge; }
+	}
+
+	/**
+	 * The Iterator returned by sorted(Iterator, Comparator, SortOptions), which can be closed to delete its temporary files
+	 * before it is exhausted.
+	 */
+	public static final class SortedIterator<T> implements Iterator<T>, Closeable {
+		private static final int BUFFER_SIZE = 1 << 16;
+
+		private final Iterator<T> source;
+		private final Comparator<T> comparator;
+		private final SortOptions<T> options;
+		private final List<SortRun> runs = new ArrayList<SortRun>(); // The runs whose files have not been deleted yet
+		private Iterator<T> merged = null;
+		private boolean closed = false;
+
+		private SortedIterator(final Iterator<T> source, final Comparator<T> comparator, final SortOptions<T> options) {
+			this.source = source;
+			this.comparator = comparator;
+			this.options = options;
+		}
+
+		/**
+		 * Sorts and spills the runs, merging them until the last merge can be done lazily
+		 */
+		private void start() throws IOException {
+			List<SortRun> pending = new ArrayList<SortRun>();
+			List<T> buffer = new ArrayList<T>();
+			while(source.hasNext()) {
+				buffer.add(source.next());
+				if((buffer.size() == options.runSize()) && source.hasNext()) {
+					Collections.sort(buffer, comparator);
+					pending.add(write(buffer.iterator()));
+					buffer.clear();
+				}
+			}
+			Collections.sort(buffer, comparator);
+			// The runs in memory and on disk are merged together, so fanIn - 1 runs on disk are left for the last merge
+			int maxRuns = options.fanIn() - 1;
+			while(pending.size() > maxRuns) {
+				List<SortRun> next = new ArrayList<SortRun>();
+				int i = 0;
+				while(i < pending.size()) {
+					int excess = next.size() + (pending.size() - i) - maxRuns;
+					if(excess <= 0) {
+						next.addAll(pending.subList(i, pending.size()));
+						break;
+					}
+					// Merging a group of n runs leaves n - 1 runs fewer, so no more runs than needed are rewritten
+					int groupSize = Math.min(Math.min(options.fanIn(), excess + 1), pending.size() - i);
+					if(groupSize == 1) {
+						next.add(pending.get(i++));
+						continue;
+					}
+					List<SortRun> group = pending.subList(i, i + groupSize);
+					next.add(write(mergeSorted(iterators(group), comparator, options.merge())));
+					for(SortRun run: group) {
+						run.delete();
+					}
+					i += groupSize;
+				}
+				pending = next;
+			}
+			List<Iterator<T>> last = iterators(pending);
+			last.add(buffer.iterator());
+			merged = mergeSorted(last, comparator, options.merge());
+		}
+
+		private SortRun write(final Iterator<T> elements) throws IOException {
+			SortRun run = new SortRun(File.createTempFile("jfnlite", ".run", options.directory()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run.file), BUFFER_SIZE));
+			try {
+				while(elements.hasNext()) {
+					options.serializer().write(elements.next(), out);
+					run.size++;
+				}
+			} finally {
+				out.close();
+			}
+			return run;
+		}
+
+		private List<Iterator<T>> iterators(final List<SortRun> group) {
+			List<Iterator<T>> iterators = new ArrayList<Iterator<T>>(group.size() + 1);
+			for(SortRun run: group) {
+				iterators.add(run.iterator());
+			}
+			return iterators;
+		}
+
+		public T next() {
+			if(this.hasNext()) {
+				return merged.next();
+			} else {
+				throw(new NoSuchElementException());
+			}
+		};
+		public boolean hasNext() {
+			if(closed) return false;
+			try {
+				if(merged == null) start();
+				if(merged.hasNext()) return true;
+				close();
+				return false;
+			} catch(IOException e) {
+				try {
+					close();
+				} catch(IOException ignored) {
+				}
+				throw(new UncheckedIOException(e));
+			} catch(RuntimeException e) {
+				try {
+					close();
+				} catch(IOException ignored) {
+				}
+				throw(e);
+			}
+		};
+		public void remove() { throw(new UnsupportedOperationException()); };
+
+		/**
+		 * Closes the open temporary files and deletes all of them. The iterator has no more elements afterwards.
+		 */
+		public void close() throws IOException {
+			if(closed) return;
+			closed = true;
+			merged = null;
+			IOException failure = null;
+			for(SortRun run: new ArrayList<SortRun>(runs)) {
+				try {
+					run.delete();
+				} catch(IOException e) {
+					if(failure == null) failure = e;
+				}
+			}
+			if(failure != null) throw(failure);
+		}
+
+		/**
+		 * A sorted run of elements in a temporary file, which is read once by its iterator and closed when all its elements have been read
+		 */
+		private final class SortRun {
+			private final File file;
+			private long size = 0;
+			private DataInputStream in = null;
+
+			private SortRun(final File file) {
+				this.file = file;
+				runs.add(this);
+			}
+
+			private Iterator<T> iterator() {
+				return new Iterator<T>() {
+					private long read = 0;
+					public T next() {
+						if(!this.hasNext()) throw(new NoSuchElementException());
+						try {
+							if(in == null) in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+							T next = options.serializer().read(in);
+							if(++read == size) {
+								in.close();
+								in = null;
+							}
+							return next;
+						} catch(IOException e) {
+							throw(new UncheckedIOException(e));
+						}
+					};
+					public boolean hasNext() {
+						return read < size;
+					};
+					public void remove() { throw(new UnsupportedOperationException()); };
+				};
+			}
+
+			private void delete() throws IOException {
+				runs.remove(this);
+				try {
+					if(in != null) in.close();
+				} finally {
+					in = null;
+					file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the k greatest elements of the given iterator according to the given comparator, from the greatest to the smallest.
+	 * See bottomK(Iterator, int, Comparator)
+	 */
+	public static <T> List<T> topK(final Iterator<T> iterator, final int k, final Comparator<T> comparator) {
+		return bottomK(iterator, k, Collections.reverseOrder(comparator));
+	}
+
+	/**
+	 * Returns the k greatest elements of the given iterable according to the given comparator, from the greatest to the smallest.
+	 * See bottomK(Iterator, int, Comparator)
+	 */
+	public static <T> List<T> topK(final Iterable<T> iterable, final int k, final Comparator<T> comparator) {
+		return bottomK(iterable, k, Collections.reverseOrder(comparator));
+	}
+
+	/**
+	 * Returns the k smallest elements of the given iterator according to the given comparator, from the smallest to the greatest
+	 * (or all of them if there are fewer than k).
+	 * 
+	 * Instead of sorting all the elements, they are offered to a heap bounded to k elements whose head is the greatest element kept,
+	 * which takes O(n log k) time and O(k) memory. The selection is stable: among equal elements competing for the last places,
+	 * the first ones are kept, and equal elements are returned in their original order.
+	 * 
+	 * @param	iterator	the elements to select from
+	 * @param	k			the maximum number of elements to return
+	 * @param	comparator	the comparator defining the order
+	 * @return				a new list with the selected elements in ascending order
+	 */
+	public static <T> List<T> bottomK(final Iterator<T> iterator, final int k, final Comparator<T> comparator) {
+		BoundedHeap<T> heap = new BoundedHeap<T>(k, comparator);
+		while(iterator.hasNext()) {
+			heap.offer(iterator.next());
+		}
+		return heap.toSortedList();
+	}
+
+	/**
+	 * Returns the k smallest elements of the given iterable according to the given comparator, from the smallest to the greatest.
+	 * See bottomK(Iterator, int, Comparator)
+	 */
+	public static <T> List<T> bottomK(final Iterable<T> iterable, final int k, final Comparator<T> comparator) {
+		final BoundedHeap<T> heap = new BoundedHeap<T>(k, comparator);
+		forEach(iterable, new Consumer<T>() {
+			public void accept(T t) {
+				heap.offer(t);
+			};
+		});
+		return heap.toSortedList();
+	}
+
+	/**
+	 * Returns the k greatest elements of the given iterable according to the given comparator, from the greatest to the smallest,
+	 * using several threads of the given executor. See parallelBottomK(Iterable, int, Comparator, Executor)
+	 */
+	public static <T> List<T> parallelTopK(final Iterable<T> iterable, final int k, final Comparator<T> comparator, final Executor executor) {
+		return parallelBottomK(iterable, k, Collections.reverseOrder(comparator), executor);
+	}
+
+	/**
+	 * Returns the k greatest elements of the given iterable according to the given comparator, from the greatest to the smallest,
+	 * using as many threads as available processors. See parallelBottomK(Iterable, int, Comparator, Executor)
+	 */
+	public static <T> List<T> parallelTopK(final Iterable<T> iterable, final int k, final Comparator<T> comparator) {
+		return parallelBottomK(iterable, k, Collections.reverseOrder(comparator));
+	}
+
+	/**
+	 * Returns the k smallest elements of the given iterable according to the given comparator, from the smallest to the greatest,
+	 * using several threads of the given executor.
+	 * 
+	 * The iterable is divided into chunks as in parallelReduce, the k smallest elements of every chunk are selected in a different task
+	 * with a bounded heap, and the heaps are merged in order into a single one. An iterable which cannot be split is processed sequentially
+	 * in the calling thread. As the partial results are merged in the order of the chunks, the selection is stable as in bottomK.
+	 * 
+	 * @param	iterable	the elements to select from
+	 * @param	k			the maximum number of elements to return
+	 * @param	comparator	the comparator defining the order
+	 * @param	executor	the executor running the selection of every chunk
+	 * @return				a new list with the selected elements in ascending order
+	 */
+	public static <T> List<T> parallelBottomK(final Iterable<T> iterable, final int k, final Comparator<T> comparator, final Executor executor) {
+		List<Splittable<T>> chunks = chunksOf(iterable);
+		if(chunks.size() < 2) {
+			return bottomK(iterable, k, comparator);
+		}
+		List<FutureTask<List<T>>> partials = new ArrayList<FutureTask<List<T>>>(chunks.size());
+		try {
+			for(final Splittable<T> chunk: chunks) {
+				FutureTask<List<T>> partial = new FutureTask<List<T>>(new Callable<List<T>>() {
+					public List<T> call() {
+						return bottomK(chunk, k, comparator);
+					};
+				});
+				partials.add(partial);
+				executor.execute(partial);
+			}
+			BoundedHeap<T> heap = new BoundedHeap<T>(k, comparator);
+			for(FutureTask<List<T>> partial: partials) {
+				for(T t: getResult(partial)) {
+					if(!heap.offer(t)) break; // The rest of the partial result is sorted, so it would not be taken either
+				}
+			}
+			return heap.toSortedList();
+		} finally {
+			for(FutureTask<List<T>> partial: partials) {
+				partial.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Returns the k smallest elements of the given iterable according to the given comparator, from the smallest to the greatest,
+	 * using as many threads as available processors. The threads are started for this selection only and stopped before returning,
+	 * see parallelBottomK(Iterable, int, Comparator, Executor)
+	 */
+	public static <T> List<T> parallelBottomK(final Iterable<T> iterable, final int k, final Comparator<T> comparator) {
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			return parallelBottomK(iterable, k, comparator, executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * A heap keeping the k smallest elements offered to it, whose head is the greatest of them.
+	 * Every element is numbered in the order it is offered, and equal elements are ordered by their number, so that the ones offered later
+	 * are evicted first and toSortedList() keeps the order they were offered in.
+	 */
+	private static final class BoundedHeap<T> {
+		private final int k;
+		private final Comparator<T> comparator;
+		private final PriorityQueue<Ranked<T>> heap;
+		private long offered = 0;
+
+		private BoundedHeap(final int k, final Comparator<T> comparator) {
+			if(k < 0) throw(new IllegalArgumentException("k must not be negative: " + k));
+			this.k = k;
+			this.comparator = comparator;
+			this.heap = new PriorityQueue<Ranked<T>>(Math.max(1, Math.min(k, MIN_CHUNK_SIZE)), Collections.reverseOrder(new Comparator<Ranked<T>>() {
+				public int compare(Ranked<T> a, Ranked<T> b) {
+					return rank(a, b);
+				};
+			}));
+		}
+
+		private int rank(final Ranked<T> a, final Ranked<T> b) {
+			int comparison = comparator.compare(a.element, b.element);
+			if(comparison != 0) return comparison;
+			return (a.sequence < b.sequence) ? -1 : ((a.sequence == b.sequence) ? 0 : 1);
+		}
+
+		/**
+		 * Adds an element if it is among the k smallest elements so far, returning whether it was added
+		 */
+		private boolean offer(final T t) {
+			long sequence = offered++;
+			if(heap.size() < k) {
+				heap.add(new Ranked<T>(t, sequence));
+				return true;
+			} else if((k > 0) && (comparator.compare(t, heap.peek().element) < 0)) { // An equal element was offered earlier, so it stays
+				heap.poll();
+				heap.add(new Ranked<T>(t, sequence));
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		private List<T> toSortedList() {
+			List<Ranked<T>> ranked = new ArrayList<Ranked<T>>(heap);
+			Collections.sort(ranked, new Comparator<Ranked<T>>() {
+				public int compare(Ranked<T> a, Ranked<T> b) {
+					return rank(a, b);
+				};
+			});
+			List<T> list = new ArrayList<T>(ranked.size());
+			for(Ranked<T> r: ranked) {
+				list.add(r.element);
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * An element of a BoundedHeap with the number of the order it was offered in
+	 */
+	private static final class Ranked<T> {
+		private final T element;
+		private final long sequence;
+
+		private Ranked(final T element, final long sequence) {
+			this.element = element;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * A view of a range of bytes of a ByteBuffer, such as a line of a file, which can be read as a CharSequence of ISO-8859-1 characters
+	 * (one char per byte), so that ASCII text can be inspected without decoding it into a String.
+	 * 
+	 * The sources returning ByteSlice objects reuse the same object for every element, changing the range it views,
+	 * so a slice is only valid until the next call to next() of its iterator: use copy() or toString(Charset) to keep its contents.
+	 */
+	public static final class ByteSlice implements CharSequence {
+		private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+		private ByteBuffer buffer;
+		private int offset;
+		private int length;
+
+		private ByteSlice() {
+		}
+
+		/**
+		 * Creates a slice viewing the given range of the given buffer
+		 */
+		public ByteSlice(final ByteBuffer buffer, final int offset, final int length) {
+			if((offset < 0) || (length < 0) || (offset + length > buffer.limit())) throw(new IndexOutOfBoundsException("offset: " + offset + ", length: " + length));
+			set(buffer, offset, length);
+		}
+
+		private void set(final ByteBuffer buffer, final int offset, final int length) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		/**
+		 * Returns the byte at the given index of this slice
+		 */
+		public byte byteAt(final int index) {
+			if((index < 0) || (index >= length)) throw(new IndexOutOfBoundsException("index: " + index + ", length: " + length));
+			return buffer.get(offset + index);
+		}
+
+		/**
+		 * Returns the byte at the given index of this slice as an ISO-8859-1 character
+		 */
+		public char charAt(final int index) {
+			return (char) (byteAt(index) & 0xff);
+		}
+
+		/**
+		 * Returns a new String with the given range of this slice as ISO-8859-1 characters
+		 */
+		public CharSequence subSequence(final int start, final int end) {
+			if((start < 0) || (start > end) || (end > length)) throw(new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length));
+			return new String(getBytes(start, end), ISO_8859_1);
+		}
+
+		/**
+		 * Returns the index of the first occurrence of the given byte in this slice, or -1 if it does not occur
+		 */
+		public int indexOf(final byte b) {
+			for(int i = offset, end = offset + length; i < end; i++) {
+				if(buffer.get(i) == b) return i - offset;
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the index of the first occurrence of the given ISO-8859-1 (e.g. ASCII) characters in this slice, or -1 if they do not occur
+		 */
+		public int indexOf(final CharSequence s) {
+			int n = s.length();
+			if(n == 0) return 0;
+			byte first = (byte) s.charAt(0);
+			for(int i = offset, last = offset + length - n; i <= last; i++) {
+				if((buffer.get(i) == first) && regionMatches(i - offset, s)) return i - offset;
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns whether this slice contains the given ISO-8859-1 (e.g. ASCII) characters
+		 */
+		public boolean contains(final CharSequence s) {
+			return indexOf(s) >= 0;
+		}
+
+		/**
+		 * Returns whether this slice starts with the given ISO-8859-1 (e.g. ASCII) characters
+		 */
+		public boolean startsWith(final CharSequence s) {
+			return (s.length() <= length) && regionMatches(0, s);
+		}
+
+		/**
+		 * Returns whether this slice consists of the given ISO-8859-1 (e.g. ASCII) characters
+		 */
+		public boolean contentEquals(final CharSequence s) {
+			return (s.length() == length) && regionMatches(0, s);
+		}
+
+		private boolean regionMatches(final int index, final CharSequence s) {
+			for(int i = 0, n = s.length(); i < n; i++) {
+				if(buffer.get(offset + index + i) != (byte) s.charAt(i)) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Returns a new array with the bytes of this slice
+		 */
+		public byte[] getBytes() {
+			return getBytes(0, length);
+		}
+
+		private byte[] getBytes(final int start, final int end) {
+			byte[] bytes = new byte[end - start];
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset + start);
+			view.get(bytes);
+			return bytes;
+		}
+
+		/**
+		 * Returns a new slice with a copy of the bytes of this slice, which remains valid when this slice changes
+		 */
+		public ByteSlice copy() {
+			return new ByteSlice(ByteBuffer.wrap(getBytes()), 0, length);
+		}
+
+		/**
+		 * Decodes the bytes of this slice with the given charset (e.g. UTF-8)
+		 */
+		public String toString(final Charset charset) {
+			return new String(getBytes(), charset);
+		}
+
+		/**
+		 * Returns the bytes of this slice as ISO-8859-1 characters, as the characters of this CharSequence
+		 */
+		public String toString() {
+			return toString(ISO_8859_1);
+		}
+	}
+
+	/**
+	 * Returns an iterable with the lines of the given file, which are read through memory-mapped windows of MappedLines.DEFAULT_WINDOW_SIZE bytes,
+	 * see mappedLines(File, int)
+	 */
+	public static MappedLines mappedLines(final File file) {
+		return mappedLines(file, MappedLines.DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Returns an iterable with the lines of the given file, which are read through memory-mapped windows of the given size,
+	 * so that a predicate can reject a line without copying its bytes or allocating a String.
+	 * 
+	 * The lines are returned as a reused ByteSlice, see ByteSlice. They are separated by '\n' bytes (with an optional preceding '\r',
+	 * which is not part of the line), so the file must have an ASCII-compatible encoding such as UTF-8.
+	 * 
+	 * @param	file		the file to read, which must not be truncated while it is read
+	 * @param	windowSize	the number of bytes mapped at once, which is exceeded only by a window for a longer line
+	 * @return				the newly created MappedLines object
+	 */
+	public static MappedLines mappedLines(final File file, final int windowSize) {
+		if(windowSize < 1) throw(new IllegalArgumentException("windowSize must be positive: " + windowSize));
+		return new MappedLines(file, windowSize);
+	}
+
+	/**
+	 * The Iterable returned by mappedLines.
+	 * 
+	 * Each iterator maps a window of the file and returns the lines inside it. When a line does not end inside the window, the next window
+	 * is mapped starting at that line, so files larger than 2 GB (the limit of a single mapping) are read through several windows.
+	 * The file is only kept open while a window is mapped, and every window is unmapped by the garbage collector once it is no longer used.
+	 */
+	public static final class MappedLines implements Iterable<ByteSlice> {
+		public static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+
+		private final File file;
+		private final int windowSize;
+
+		private MappedLines(final File file, final int windowSize) {
+			this.file = file;
+			this.windowSize = windowSize;
+		}
+
+		public Iterator<ByteSlice> iterator() {
+			return new Iterator<ByteSlice>() {
+				private final ByteSlice line = new ByteSlice();
+				private long fileSize = -1;
+				private long windowStart = 0;
+				private MappedByteBuffer window = null;
+				private int position = 0; // The start of the next line in the window
+				private boolean hasCachedNext = false;
+				public ByteSlice next() {
+					if(this.hasNext()) {
+						hasCachedNext = false;
+						return line;
+					} else {
+						throw(new NoSuchElementException());
+					}
+				};
+				public boolean hasNext() {
+					if(hasCachedNext) return true;
+					if(fileSize < 0) map(0, 0);
+					int scanned = position;
+					while(windowStart + position < fileSize) {
+						int limit = window.limit();
+						for(int i = scanned; i < limit; i++) {
+							if(window.get(i) == '\n') {
+								int length = i - position;
+								if((length > 0) && (window.get(i - 1) == '\r')) length--;
+								line.set(window, position, length);
+								position = i + 1;
+								return hasCachedNext = true;
+							}
+						}
+						if(windowStart + limit == fileSize) {
+							line.set(window, position, limit - position);
+							position = limit;
+							return hasCachedNext = true;
+						}
+						// The line goes on past the window, so the next window starts at the line, and is bigger if the line is longer than a window,
+						// up to the limit of a single mapping
+						if((position == 0) && (limit == Integer.MAX_VALUE)) throw(new IllegalStateException("Line longer than " + Integer.MAX_VALUE + " bytes at offset " + windowStart + " of " + file));
+						scanned = limit - position;
+						map(windowStart + position, (position == 0) ? Math.min(((long) limit) << 1, Integer.MAX_VALUE) : windowSize);
+					}
+					window = null;
+					return false;
+				};
+				public void remove() { throw(new UnsupportedOperationException()); };
+
+				private void map(final long start, final long minSize) {
+					try {
+						RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+						try {
+							FileChannel channel = randomAccessFile.getChannel();
+							if(fileSize < 0) fileSize = channel.size();
+							long size = Math.min(fileSize - start, Math.max(minSize, windowSize));
+							window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+							windowStart = start;
+							position = 0;
+						} finally {
+							randomAccessFile.close();
+						}
+					} catch(IOException e) {
+						throw(new UncheckedIOException(e));
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * Returns an iterable with the records of the given file separated by the given delimiter, which are read with a direct buffer of
+	 * FileRecords.DEFAULT_BUFFER_SIZE bytes, see records(File, byte, int)
+	 */
+	public static FileRecords records(final File file, final byte delimiter) {
+		return records(file, delimiter, FileRecords.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Returns an iterable with the records of the given file separated by the given delimiter (e.g. '\n'), which are read in chunks
+	 * with a direct buffer of the given size, see records(ReadableByteChannel, byte, int).
+	 * 
+	 * This is the alternative to mappedLines for the files that should not be memory-mapped, such as those in network file systems
+	 * or those being appended to. Each iterator opens the file, and closes it when it is exhausted or closed. anyMatch, allMatch, noneMatch,
+	 * findFirst, limit and takeWhile close the iterators they stop reading early, also when the records are wrapped by other operations
+	 * (e.g. a map or filter of the records), since the iterators of those operations are Closeable and close their source.
+	 * Any other code which stops reading an iterator before its end (e.g. a loop with a break) must close it, or the file stays open.
+	 * 
+	 * @param	file		the file to read
+	 * @param	delimiter	the byte ending every record, which is not part of the record
+	 * @param	bufferSize	the initial size of the buffer of every iterator, which is doubled for records which do not fit in it
+	 * @return				the newly created FileRecords object
+	 */
+	public static FileRecords records(final File file, final byte delimiter, final int bufferSize) {
+		if(bufferSize < 1) throw(new IllegalArgumentException("bufferSize must be positive: " + bufferSize));
+		return new FileRecords(file, delimiter, bufferSize, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns an iterator with the records read from the given channel, separated by the given delimiter.
+	 * 
+	 * The records are returned as a reused ByteSlice (see ByteSlice) over a direct buffer, which is filled with a read() call on the channel
+	 * every time it has no more complete records. Only the last incomplete record is moved to the beginning of the buffer before reading,
+	 * so each byte is copied once from the channel. The last record may not end with a delimiter, but an empty last record is not returned.
+	 * The channel is closed when the iterator is exhausted or closed.
+	 * 
+	 * @param	channel		the channel to read, which must be in blocking mode
+	 * @param	delimiter	the byte ending every record, which is not part of the record
+	 * @param	bufferSize	the initial size of the buffer, which is doubled for records which do not fit in it
+	 * @return				the newly created RecordIterator object
+	 */
+	public static RecordIterator records(final ReadableByteChannel channel, final byte delimiter, final int bufferSize) {
+		if(bufferSize < 1) throw(new IllegalArgumentException("bufferSize must be positive: " + bufferSize));
+		if((channel instanceof SelectableChannel) && !((SelectableChannel) channel).isBlocking()) throw(new IllegalArgumentException("The channel must be in blocking mode"));
+		return new RecordIterator(channel, delimiter, bufferSize, 0, false, Long.MAX_VALUE);
+	}
+
+	/**
+	 * The Iterable returned by records(File, byte, int), whose iterators read the file with a RecordIterator.
+	 * 
+	 * A FileRecords object may stand for the records starting in a byte range of the file only. The ranges do not need to start at a record:
+	 * a record belongs to the range where its first byte is, so an iterator starting in the middle of a record skips it, and an iterator
+	 * returns the last record starting in its range entirely, even if it ends past the range. Therefore the ranges returned by ranges(long)
+	 * can be read in parallel, and together they have each record of the file exactly once.
+	 * 
+	 * FileRecords is not a Splittable on purpose: its iterators return the same ByteSlice for every record, which the parallel operations
+	 * keeping elements (e.g. parallelBottomK) would store as is. The records are read in parallel with parallelScan instead, whose scanning
+	 * function sees the records of a range as they go by. Operations which keep elements (e.g. bottomK, sorted or collectToList)
+	 * must be given copies of the records, such as map(records, f) with a function f returning slice.copy() or slice.toString(charset).
+	 */
+	public static final class FileRecords implements Iterable<ByteSlice> {
+		public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+		/**
+		 * The size of the byte ranges of parallelScan, big enough for the cost of a task to be negligible
+		 */
+		public static final long DEFAULT_RANGE_SIZE = 1L << 26;
+
+		private final File file;
+		private final byte delimiter;
+		private final int bufferSize;
+		private final long from;
+		private final long to; // Long.MAX_VALUE stands for the end of the file, whatever its size is when it is read
+
+		private FileRecords(final File file, final byte delimiter, final int bufferSize, final long from, final long to) {
+			this.file = file;
+			this.delimiter = delimiter;
+			this.bufferSize = bufferSize;
+			this.from = from;
+			this.to = to;
+		}
+
+		public RecordIterator iterator() {
+			RandomAccessFile randomAccessFile;
+			try {
+				randomAccessFile = new RandomAccessFile(file, "r");
+			} catch(IOException e) {
+				throw(new UncheckedIOException(e));
+			}
+			try {
+				FileChannel channel = randomAccessFile.getChannel();
+				// Reading from the byte before the range tells whether the range starts at a record or in the middle of the previous one
+				long start = Math.max(from - 1, 0);
+				channel.position(start);
+				return new RecordIterator(channel, delimiter, bufferSize, start, from > 0, to);
+			} catch(IOException e) {
+				try {
+					randomAccessFile.close();
+				} catch(IOException ignored) {
+				}
+				throw(new UncheckedIOException(e));
+			} catch(RuntimeException e) {
+				try {
+					randomAccessFile.close();
+				} catch(IOException ignored) {
+				}
+				throw(e);
+			}
+		}
+
+		/**
+		 * Divides the records of this object into the records of consecutive byte ranges of the given size (the last one may be smaller),
+		 * according to the current size of the file
+		 */
+		public List<FileRecords> ranges(final long rangeSize) {
+			if(rangeSize < 1) throw(new IllegalArgumentException("rangeSize must be positive: " + rangeSize));
+			long end = Math.min(to, file.length());
+			List<FileRecords> ranges = new ArrayList<FileRecords>();
+			long rangeFrom = from;
+			while(end - rangeFrom > rangeSize) {
+				ranges.add(new FileRecords(file, delimiter, bufferSize, rangeFrom, rangeFrom + rangeSize));
+				rangeFrom += rangeSize;
+			}
+			ranges.add(new FileRecords(file, delimiter, bufferSize, rangeFrom, to));
+			return ranges;
+		}
+	}
+
+	/**
+	 * The Iterator returned by records(ReadableByteChannel, byte, int) and by the iterators of FileRecords,
+	 * which can be closed to close its channel before it is exhausted.
+	 */
+	public static final class RecordIterator implements Iterator<ByteSlice>, Closeable {
+		private final ReadableByteChannel channel;
+		private final byte delimiter;
+		private final long end;
+		private final ByteSlice record = new ByteSlice();
+		private ByteBuffer buffer; // In read mode, from the start of the next record to the end of the bytes read
+		private long offset; // The offset in the channel of the beginning of the buffer
+		private int scanned = 0; // The number of bytes of the next record already known not to be a delimiter
+		private boolean skipping;
+		private boolean endOfInput = false;
+		private boolean closed = false;
+		private boolean hasCachedNext = false;
+
+		/**
+		 * Creates an iterator returning the records which start before the given end offset, skipping the first one if skipFirst is true
+		 */
+		private RecordIterator(final ReadableByteChannel channel, final byte delimiter, final int bufferSize, final long offset, final boolean skipFirst, final long end) {
+			this.channel = channel;
+			this.delimiter = delimiter;
+			this.end = end;
+			this.offset = offset;
+			this.skipping = skipFirst;
+			this.buffer = ByteBuffer.allocateDirect(bufferSize);
+			this.buffer.limit(0);
+		}
+
+		public ByteSlice next() {
+			if(this.hasNext()) {
+				hasCachedNext = false;
+				return record;
+			} else {
+				throw(new NoSuchElementException());
+			}
+		};
+		public boolean hasNext() {
+			if(hasCachedNext) return true;
+			if(closed) return false;
+			try {
+				nextRecord:
+				while(true) {
+					int start = buffer.position();
+					int limit = buffer.limit();
+					if(offset + start >= end) break;
+					for(int i = start + scanned; i < limit; i++) {
+						if(buffer.get(i) == delimiter) {
+							buffer.position(i + 1);
+							scanned = 0;
+							if(skipping) {
+								skipping = false;
+								continue nextRecord;
+							}
+							record.set(buffer, start, i - start);
+							return hasCachedNext = true;
+						}
+					}
+					scanned = limit - start;
+					if(endOfInput) {
+						if((scanned == 0) || skipping) break;
+						record.set(buffer, start, scanned);
+						buffer.position(limit);
+						scanned = 0;
+						return hasCachedNext = true;
+					}
+					fill();
+				}
+				close();
+				return false;
+			} catch(IOException e) {
+				try {
+					close();
+				} catch(IOException ignored) {
+				}
+				throw(new UncheckedIOException(e));
+			}
+		};
+		public void remove() { throw(new UnsupportedOperationException()); };
+
+		/**
+		 * Reads more bytes after the incomplete record at the end of the buffer, moving it to the beginning of the buffer,
+		 * or to a new buffer twice as big if it already fills the buffer
+		 */
+		private void fill() throws IOException {
+			if((buffer.position() == 0) && (buffer.limit() == buffer.capacity())) {
+				ByteBuffer bigger = ByteBuffer.allocateDirect(buffer.capacity() << 1);
+				bigger.put(buffer);
+				buffer = bigger;
+			} else {
+				offset += buffer.position();
+				buffer.compact();
+			}
+			int read;
+			do {
+				read = channel.read(buffer);
+			} while((read == 0) && buffer.hasRemaining());
+			if(read < 0) endOfInput = true;
+			buffer.flip();
+		}
+
+		/**
+		 * Closes the channel. The iterator has no more elements afterwards.
+		 */
+		public void close() throws IOException {
+			if(closed) return;
+			closed = true;
+			buffer.limit(0);
+			channel.close();
+		}
+	}
+
+	/**
+	 * Scans the given records with several threads of the given executor, in byte ranges of FileRecords.DEFAULT_RANGE_SIZE bytes,
+	 * see parallelScan(FileRecords, long, Function, Executor, int, boolean)
+	 */
+	public static <R> Iterator<R> parallelScan(final FileRecords records, final Function<Iterable<ByteSlice>,Iterable<R>> scan, final Executor executor, final int maxInFlight, final boolean ordered) {
+		return parallelScan(records, FileRecords.DEFAULT_RANGE_SIZE, scan, executor, maxInFlight, ordered);
+	}
+
+	/**
+	 * Scans the given records with several threads of the given executor, dividing them into byte ranges (see FileRecords.ranges(long))
+	 * and applying the given scan function to each range in a different task, e.g. a filter followed by a map.
+	 * 
+	 * The results of every range are collected into a list, so the scan function must not return the ByteSlice objects of its iterable,
+	 * which are reused, but copies or values computed from them. The lists are handed over as in parallelMap, or parallelMapUnordered when
+	 * ordered is false, so the results are returned in the order of the file or in the order the ranges are done.
+	 * 
+	 * @param	records		the records to scan
+	 * @param	rangeSize	the number of bytes of every range
+	 * @param	scan		the function building the results of the records of a range
+	 * @param	executor	the executor running the scan of every range
+	 * @param	maxInFlight	the maximum number of ranges being scanned or whose results have not been returned yet
+	 * @param	ordered		whether the results are returned in the order of the file
+	 * @return				the newly created Iterator object
+	 */
+	public static <R> Iterator<R> parallelScan(final FileRecords records, final long rangeSize, final Function<Iterable<ByteSlice>,Iterable<R>> scan, final Executor executor, final int maxInFlight, final boolean ordered) {
+		Function<FileRecords,List<R>> scanRange = new Function<FileRecords,List<R>>() {
+			public List<R> apply(FileRecords range) {
+				return collectToList(scan.apply(range));
+			};
+		};
+		Iterator<FileRecords> ranges = records.ranges(rangeSize).iterator();
+		Iterator<List<R>> results = ordered ? parallelMap(ranges, scanRange, executor, maxInFlight) : parallelMapUnordered(ranges, scanRange, executor, maxInFlight);
+		return flatten(map(results, new Function<List<R>,Iterator<R>>() {
+			public Iterator<R> apply(List<R> result) {
+				return result.iterator();
+			};
+		}));
+	}
+
+	/**
+	 * Returns a sink writing the elements to the given stream with the given serializer through a buffer of Sink.DEFAULT_BUFFER_SIZE bytes
+	 */
+	public static <T> Sink<T> sink(final OutputStream out, final Serializer<T> serializer) {
+		return sink(out, serializer, Sink.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Returns a sink writing the elements to the given stream with the given serializer through a buffer of the given size,
+	 * so that the stream is only written when the buffer is full, flushed or closed
+	 */
+	public static <T> Sink<T> sink(final OutputStream out, final Serializer<T> serializer, final int bufferSize) {
+		if(bufferSize < 1) throw(new IllegalArgumentException("bufferSize must be positive: " + bufferSize));
+		return new StreamSink<T>(new BufferedOutputStream(out, bufferSize), serializer);
+	}
+
+	/**
+	 * Returns a sink writing the elements to the given file with the given serializer through a buffer of Sink.DEFAULT_BUFFER_SIZE bytes,
+	 * replacing its contents
+	 */
+	public static <T> Sink<T> sink(final File file, final Serializer<T> serializer) {
+		return sink(file, serializer, Sink.DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * Returns a sink writing the elements to the given file with the given serializer through a buffer of the given size,
+	 * replacing its contents or appending to them
+	 */
+	public static <T> Sink<T> sink(final File file, final Serializer<T> serializer, final int bufferSize, final boolean append) {
+		try {
+			return sink(new FileOutputStream(file, append), serializer, bufferSize);
+		} catch(IOException e) {
+			throw(new UncheckedIOException(e));
+		}
+	}
+
+	/**
+	 * Returns a sink writing the elements to the given channel (e.g. a FileChannel or a SocketChannel) with the given serializer.
+	 * 
+	 * The elements are serialized into direct buffers of up to 64 KB which add up to the given size, and all of them are written
+	 * with gathering writes when they are full, so that the channel gets large writes without a single large buffer.
+	 * 
+	 * @param	channel		the channel to write, which must be in blocking mode if it is a SelectableChannel
+	 * @param	serializer	the serializer writing each element
+	 * @param	bufferSize	the number of bytes buffered before writing them to the channel
+	 * @return				the newly created Sink object
+	 */
+	public static <T> Sink<T> sink(final GatheringByteChannel channel, final Serializer<T> serializer, final int bufferSize) {
+		if(bufferSize < 1) throw(new IllegalArgumentException("bufferSize must be positive: " + bufferSize));
+		if((channel instanceof SelectableChannel) && !((SelectableChannel) channel).isBlocking()) throw(new IllegalArgumentException("The channel must be in blocking mode"));
+		return new StreamSink<T>(new ChannelOutputStream(channel, bufferSize), serializer);
+	}
+
+	/**
+	 * Passes all the elements of the given iterator to the given sink, and flushes it without closing it.
+	 * 
+	 * @return	the number of elements written
+	 */
+	public static <T> long drainTo(final Iterator<T> iterator, final Sink<T> sink) throws IOException {
+		long count = 0;
+		while(iterator.hasNext()) {
+			sink.accept(iterator.next());
+			count++;
+		}
+		sink.flush();
+		return count;
+	}
+
+	/**
+	 * Passes all the elements of the given iterable to the given sink, and flushes it without closing it.
+	 * The elements are pushed to the sink as in forEach(Iterable, Consumer).
+	 * 
+	 * @return	the number of elements written
+	 */
+	public static <T> long drainTo(final Iterable<T> iterable, final Sink<T> sink) throws IOException {
+		final long[] count = new long[1];
+		push(iterable, new Consumer<T>() {
+			public void accept(T t) {
+				sink.accept(t);
+				count[0]++;
+			};
+		});
+		sink.flush();
+		return count[0];
+	}
+
+	/**
+	 * A Sink serializing the elements to a buffered stream
+	 */
+	private static final class StreamSink<T> implements Sink<T> {
+		private final DataOutputStream out;
+		private final Serializer<T> serializer;
+
+		private StreamSink(final OutputStream out, final Serializer<T> serializer) {
+			this.out = new DataOutputStream(out);
+			this.serializer = serializer;
+		}
+
+		public void accept(T t) {
+			try {
+				serializer.write(t, out);
+			} catch(IOException e) {
+				throw(new UncheckedIOException(e));
+			}
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		/**
+		 * Flushes explicitly before closing, since FilterOutputStream.close() ignores an exception thrown by flush() before Java 8
+		 */
+		public void close() throws IOException {
+			try {
+				out.flush();
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * An OutputStream filling a series of direct buffers, which are written to a channel with a single gathering write when all are full.
+	 * If a write to the channel fails, the bytes it did not write stay in the buffers, so a later flush() or close() retries them.
+	 */
+	private static final class ChannelOutputStream extends OutputStream {
+		private static final int MAX_CHUNK_SIZE = 1 << 16;
+
+		private final GatheringByteChannel channel;
+		private final ByteBuffer[] chunks;
+		private int current = 0;
+		private boolean closed = false;
+
+		private ChannelOutputStream(final GatheringByteChannel channel, final int bufferSize) {
+			this.channel = channel;
+			int chunkSize = Math.min(bufferSize, MAX_CHUNK_SIZE);
+			this.chunks = new ByteBuffer[(bufferSize + chunkSize - 1) / chunkSize];
+			for(int i = 0; i < chunks.length; i++) {
+				chunks[i] = ByteBuffer.allocateDirect(chunkSize);
+			}
+		}
+
+		public void write(final int b) throws IOException {
+			if(closed) throw(new IOException("Stream closed"));
+			if(!chunks[current].hasRemaining()) nextChunk();
+			chunks[current].put((byte) b);
+		}
+
+		public void write(final byte[] b, int off, int len) throws IOException {
+			if(closed) throw(new IOException("Stream closed"));
+			while(len > 0) {
+				if(!chunks[current].hasRemaining()) nextChunk();
+				int n = Math.min(len, chunks[current].remaining());
+				chunks[current].put(b, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void nextChunk() throws IOException {
+			if(current == chunks.length - 1) {
+				flush();
+			} else {
+				current++;
+			}
+		}
+
+		/**
+		 * Writes all the buffered bytes to the channel
+		 */
+		public void flush() throws IOException {
+			if(closed) throw(new IOException("Stream closed"));
+			for(int i = 0; i <= current; i++) {
+				chunks[i].flip();
+			}
+			boolean written = false;
+			try {
+				while(chunks[current].hasRemaining()) {
+					channel.write(chunks, 0, current + 1);
+				}
+				written = true;
+			} finally {
+				if(written) {
+					for(int i = 0; i <= current; i++) {
+						chunks[i].clear();
+					}
+					current = 0;
+				} else {
+					// Keeps the bytes not written yet, in order, and goes on filling the same buffers
+					for(int i = 0; i <= current; i++) {
+						chunks[i].compact();
+					}
+				}
+			}
+		}
+
+		public void close() throws IOException {
+			if(closed) return;
+			try {
+				flush();
+			} finally {
+				closed = true;
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns a channel with the decompressed contents of the given gzip stream, which may consist of several gzip members (as those
+	 * written by bgzip or by concatenating gzip files).
+	 * 
+	 * The compressed bytes are read into a buffer of the given size and inflated into another one, so that the stream is read with large reads,
+	 * and the checksum and size of every member are verified. The Inflater is taken from a pool shared by all the gzip channels and
+	 * returned to it when the channel is closed, so reading many files does not allocate the native memory of an Inflater for each one.
+	 * The pool keeps up to twice as many idle Inflaters as available processors, and ends the rest.
+	 * 
+	 * @param	in			the gzip stream, which is closed when the channel is closed
+	 * @param	bufferSize	the size of the buffers of compressed and decompressed bytes
+	 * @return				the newly created channel, whose read() calls throw ZipException if the stream is not valid gzip
+	 */
+	public static ReadableByteChannel gunzip(final InputStream in, final int bufferSize) {
+		if(bufferSize < 1) throw(new IllegalArgumentException("bufferSize must be positive: " + bufferSize));
+		return new GzipReadableChannel(in, bufferSize);
+	}
+
+	/**
+	 * Returns a stream compressing the bytes written to it into the given stream in gzip format, see gunzip.
+	 * 
+	 * The Deflater is taken from a pool shared by all the gzip streams and returned to it when the stream is closed (or ended if the pool is full, see gunzip).
+	 * Since the compressor keeps part of the input until it is finished, the gzip data is only complete after the stream is closed:
+	 * flush() only flushes the compressed bytes written so far to the given stream.
+	 * 
+	 * @param	out			the stream receiving the gzip data, which is closed when the returned stream is closed
+	 * @param	level		the compression level, from Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION, or Deflater.DEFAULT_COMPRESSION
+	 * @param	bufferSize	the size of the buffer of compressed bytes, which is the maximum size of the writes to the given stream
+	 * @return				the newly created OutputStream object
+	 */
+	public static OutputStream gzip(final OutputStream out, final int level, final int bufferSize) {
+		if(bufferSize < 1) throw(new IllegalArgumentException("bufferSize must be positive: " + bufferSize));
+		return new GzipOutputStream(out, level, bufferSize);
+	}
+
+	/**
+	 * Returns an iterable with the records of the given gzip file separated by the given delimiter, which are decompressed
+	 * in the calling thread with buffers of FileRecords.DEFAULT_BUFFER_SIZE bytes, see gzipRecords(File, byte, int, Executor)
+	 */
+	public static Iterable<ByteSlice> gzipRecords(final File file, final byte delimiter) {
+		return gzipRecords(file, delimiter, FileRecords.DEFAULT_BUFFER_SIZE, null);
+	}
+
+	/**
+	 * Returns an iterable with the records of the given gzip file separated by the given delimiter, see records(ReadableByteChannel, byte, int).
+	 * 
+	 * When a decompressor executor is given, the file is decompressed by a task of that executor, which hands over chunks of the
+	 * given size through a queue of up to GZIP_CHUNKS_AHEAD chunks (see prefetch), so that decompressing and processing the records
+	 * run in parallel. Otherwise each iterator decompresses the file in the calling thread.
+	 * 
+	 * @param	file			the gzip file
+	 * @param	delimiter		the byte ending every record, which is not part of the record
+	 * @param	bufferSize		the size of the compressed, decompressed and record buffers
+	 * @param	decompressor	the executor decompressing the file, which takes one of its threads until the file is read, or null
+	 * @return					the newly created Iterable object
+	 */
+	public static Iterable<ByteSlice> gzipRecords(final File file, final byte delimiter, final int bufferSize, final Executor decompressor) {
+		if(bufferSize < 1) throw(new IllegalArgumentException("bufferSize must be positive: " + bufferSize));
+		return new Iterable<ByteSlice>() {
+			public Iterator<ByteSlice> iterator() {
+				ReadableByteChannel channel;
+				try {
+					channel = gunzip(new FileInputStream(file), bufferSize);
+				} catch(IOException e) {
+					throw(new UncheckedIOException(e));
+				}
+				try {
+					if(decompressor != null) {
+						ChannelChunkIterator chunks = new ChannelChunkIterator(channel, bufferSize);
+						channel = new PrefetchChannel(prefetch(chunks, GZIP_CHUNKS_AHEAD, decompressor), chunks);
+					}
+					return records(channel, delimiter, bufferSize);
+				} catch(RuntimeException e) {
+					try {
+						channel.close();
+					} catch(IOException ignored) {
+					}
+					throw(e);
+				}
+			};
+		};
+	}
+
+	/**
+	 * Returns a sink writing the elements to the given file with the given serializer, compressed in gzip format with the given level.
+	 * The elements are serialized into a buffer of Sink.DEFAULT_BUFFER_SIZE bytes, which is compressed when it is full, see gzip.
+	 */
+	public static <T> Sink<T> gzipSink(final File file, final Serializer<T> serializer, final int level) {
+		try {
+			return sink(gzip(new FileOutputStream(file), level, Sink.DEFAULT_BUFFER_SIZE), serializer, Sink.DEFAULT_BUFFER_SIZE);
+		} catch(IOException e) {
+			throw(new UncheckedIOException(e));
+		}
+	}
+
+	/**
+	 * The number of decompressed chunks that the decompressor task of gzipRecords may get ahead of the records returned
+	 */
+	private static final int GZIP_CHUNKS_AHEAD = 4;
+
+	/**
+	 * The maximum number of idle Inflaters and Deflaters kept in each pool. The ones returned to a full pool are ended right away,
+	 * so that their native memory is freed without waiting for finalization.
+	 */
+	private static final int MAX_POOLED_CODECS = Runtime.getRuntime().availableProcessors() * 2;
+
+	private static final Queue<Inflater> INFLATERS = new ConcurrentLinkedQueue<Inflater>();
+	private static final AtomicInteger POOLED_INFLATERS = new AtomicInteger(); // The size of INFLATERS, as its size() is not constant-time
+	private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<Deflater>();
+	private static final AtomicInteger POOLED_DEFLATERS = new AtomicInteger();
+
+	private static Inflater acquireInflater() {
+		Inflater inflater = INFLATERS.poll();
+		if(inflater == null) return new Inflater(true); // Raw deflate, as the gzip header and trailer are handled apart
+		POOLED_INFLATERS.decrementAndGet();
+		return inflater;
+	}
+
+	private static void releaseInflater(final Inflater inflater) {
+		if(POOLED_INFLATERS.incrementAndGet() <= MAX_POOLED_CODECS) {
+			inflater.reset();
+			INFLATERS.offer(inflater);
+		} else {
+			POOLED_INFLATERS.decrementAndGet();
+			inflater.end();
+		}
+	}
+
+	private static Deflater acquireDeflater(final int level) {
+		Deflater deflater = DEFLATERS.poll();
+		if(deflater == null) return new Deflater(level, true);
+		POOLED_DEFLATERS.decrementAndGet();
+		deflater.setLevel(level);
+		return deflater;
+	}
+
+	private static void releaseDeflater(final Deflater deflater) {
+		if(POOLED_DEFLATERS.incrementAndGet() <= MAX_POOLED_CODECS) {
+			deflater.reset();
+			DEFLATERS.offer(deflater);
+		} else {
+			POOLED_DEFLATERS.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int GZIP_FEXTRA = 4;
+	private static final int GZIP_FNAME = 8;
+	private static final int GZIP_FCOMMENT = 16;
+	private static final int GZIP_FHCRC = 2;
+
+	/**
+	 * The channel returned by gunzip, which parses the header and trailer of every gzip member itself and inflates the raw deflate data
+	 * between them with a pooled Inflater
+	 */
+	private static final class GzipReadableChannel implements ReadableByteChannel {
+		private final InputStream in;
+		private final byte[] input;
+		private int inputPosition = 0;
+		private int inputLimit = 0;
+		private final byte[] output;
+		private int outputPosition = 0;
+		private int outputLimit = 0;
+		private final CRC32 crc = new CRC32();
+		private long memberSize = 0;
+		private Inflater inflater = null;
+		private boolean started = false;
+		private boolean endOfStream = false;
+		private boolean open = true;
+
+		private GzipReadableChannel(final InputStream in, final int bufferSize) {
+			this.in = in;
+			this.input = new byte[bufferSize];
+			this.output = new byte[bufferSize];
+		}
+
+		public int read(final ByteBuffer dst) throws IOException {
+			if(!open) throw(new ClosedChannelException());
+			if(!started) {
+				started = true;
+				inflater = acquireInflater();
+				endOfStream = !readHeader();
+			}
+			while(outputPosition == outputLimit) {
+				if(endOfStream) return -1;
+				inflate();
+			}
+			int n = Math.min(dst.remaining(), outputLimit - outputPosition);
+			dst.put(output, outputPosition, n);
+			outputPosition += n;
+			return n;
+		}
+
+		private void inflate() throws IOException {
+			try {
+				if(inflater.needsInput()) {
+					if((inputPosition == inputLimit) && !fillInput()) throw(new EOFException("Unexpected end of gzip stream"));
+					inflater.setInput(input, inputPosition, inputLimit - inputPosition);
+					inputPosition = inputLimit;
+				}
+				int n = inflater.inflate(output, 0, output.length);
+				if(n > 0) {
+					crc.update(output, 0, n);
+					memberSize += n;
+					outputPosition = 0;
+					outputLimit = n;
+				}
+				if(inflater.finished()) {
+					inputPosition = inputLimit - inflater.getRemaining();
+					readTrailer();
+					inflater.reset();
+					crc.reset();
+					memberSize = 0;
+					endOfStream = !readHeader();
+				} else if((n == 0) && inflater.needsDictionary()) {
+					throw(new ZipException("Unsupported preset dictionary in gzip stream"));
+				}
+			} catch(DataFormatException e) {
+				throw(new ZipException(e.getMessage()));
+			}
+		}
+
+		/**
+		 * Reads the header of a gzip member, returning false if the stream ends before it
+		 */
+		private boolean readHeader() throws IOException {
+			int first = readByte();
+			if(first < 0) return false;
+			if((first | (readUnsignedByte() << 8)) != GZIP_MAGIC) throw(new ZipException("Not in gzip format"));
+			if(readUnsignedByte() != Deflater.DEFLATED) throw(new ZipException("Unsupported gzip compression method"));
+			int flags = readUnsignedByte();
+			skip(6); // Modification time, extra flags and operating system
+			if((flags & GZIP_FEXTRA) != 0) skip(readUnsignedByte() | (readUnsignedByte() << 8));
+			if((flags & GZIP_FNAME) != 0) while(readUnsignedByte() != 0);
+			if((flags & GZIP_FCOMMENT) != 0) while(readUnsignedByte() != 0);
+			if((flags & GZIP_FHCRC) != 0) skip(2);
+			return true;
+		}
+
+		private void readTrailer() throws IOException {
+			long checksum = readUnsignedInt();
+			long size = readUnsignedInt();
+			if((checksum != crc.getValue()) || (size != (memberSize & 0xffffffffL))) throw(new ZipException("Corrupt gzip trailer"));
+		}
+
+		private long readUnsignedInt() throws IOException {
+			return (readUnsignedByte() | (readUnsignedByte() << 8) | (readUnsignedByte() << 16) | (((long) readUnsignedByte()) << 24));
+		}
+
+		private void skip(int n) throws IOException {
+			while(n-- > 0) readUnsignedByte();
+		}
+
+		private int readUnsignedByte() throws IOException {
+			int b = readByte();
+			if(b < 0) throw(new EOFException("Unexpected end of gzip stream"));
+			return b;
+		}
+
+		private int readByte() throws IOException {
+			if((inputPosition == inputLimit) && !fillInput()) return -1;
+			return input[inputPosition++] & 0xff;
+		}
+
+		private boolean fillInput() throws IOException {
+			int n;
+			do {
+				n = in.read(input, 0, input.length);
+			} while(n == 0);
+			if(n < 0) return false;
+			inputPosition = 0;
+			inputLimit = n;
+			return true;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		public void close() throws IOException {
+			if(!open) return;
+			open = false;
+			if(inflater != null) {
+				releaseInflater(inflater);
+				inflater = null;
+			}
+			in.close();
+		}
+	}
+
+	/**
+	 * The stream returned by gzip, which writes the header and trailer of a single gzip member around the raw deflate data
+	 * of a pooled Deflater
+	 */
+	private static final class GzipOutputStream extends OutputStream {
+		private final OutputStream out;
+		private final byte[] output;
+		private final byte[] single = new byte[1]; // The byte written by write(int)
+		private final CRC32 crc = new CRC32();
+		private long size = 0;
+		private Deflater deflater;
+
+		private GzipOutputStream(final OutputStream out, final int level, final int bufferSize) {
+			this.out = out;
+			this.output = new byte[Math.max(bufferSize, 10)];
+			this.deflater = acquireDeflater(level);
+			// Magic number, deflate method, no flags, no modification time, no extra flags and unknown operating system
+			output[0] = (byte) GZIP_MAGIC;
+			output[1] = (byte) (GZIP_MAGIC >> 8);
+			output[2] = Deflater.DEFLATED;
+			output[9] = (byte) 0xff;
+			try {
+				out.write(output, 0, 10);
+			} catch(IOException e) {
+				releaseDeflater(deflater);
+				try {
+					out.close();
+				} catch(IOException ignored) {
+				}
+				throw(new UncheckedIOException(e));
+			}
+		}
+
+		public void write(final int b) throws IOException {
+			single[0] = (byte) b;
+			write(single, 0, 1);
+		}
+
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if(deflater == null) throw(new IOException("Stream closed"));
+			if(len == 0) return;
+			crc.update(b, off, len);
+			size += len;
+			deflater.setInput(b, off, len);
+			while(!deflater.needsInput()) {
+				deflate();
+			}
+		}
+
+		private void deflate() throws IOException {
+			int n = deflater.deflate(output, 0, output.length);
+			if(n > 0) out.write(output, 0, n);
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public void close() throws IOException {
+			if(deflater == null) return;
+			try {
+				deflater.finish();
+				while(!deflater.finished()) {
+					deflate();
+				}
+				long checksum = crc.getValue();
+				for(int i = 0; i < 4; i++) {
+					output[i] = (byte) (checksum >> (i << 3));
+					output[i + 4] = (byte) (size >> (i << 3));
+				}
+				out.write(output, 0, 8);
+			} finally {
+				releaseDeflater(deflater);
+				deflater = null;
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * An iterator reading a channel in chunks of a given size, which closes the channel when it ends.
+	 * 
+	 * The chunks are read into buffers taken from a pool, to which the consumer hands them back with recycle() once it has drained them.
+	 * With up to GZIP_CHUNKS_AHEAD chunks queued by the PrefetchIterator, one being read by the consumer and one being filled,
+	 * the pool of GZIP_CHUNKS_AHEAD + 2 buffers is enough for the whole channel. A new buffer is only allocated when the pool is empty.
+	 */
+	private static final class ChannelChunkIterator implements Iterator<ByteBuffer>, Closeable {
+		private final ReadableByteChannel channel;
+		private final int chunkSize;
+		private final BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<ByteBuffer>(GZIP_CHUNKS_AHEAD + 2);
+		private ByteBuffer readyNext = null;
+
+		private ChannelChunkIterator(final ReadableByteChannel channel, final int chunkSize) {
+			this.channel = channel;
+			this.chunkSize = chunkSize;
+		}
+
+		/**
+		 * Hands back a chunk returned by next() whose bytes have all been read, so that it is reused for another chunk
+		 */
+		private void recycle(final ByteBuffer chunk) {
+			chunk.clear();
+			pool.offer(chunk);
+		}
+
+		public ByteBuffer next() {
+			if(this.hasNext()) {
+				ByteBuffer next = readyNext;
+				readyNext = null;
+				return next;
+			} else {
+				throw(new NoSuchElementException());
+			}
+		};
+		public boolean hasNext() {
+			if(readyNext != null) return true;
+			if(!channel.isOpen()) return false;
+			try {
+				ByteBuffer chunk = pool.poll();
+				if(chunk == null) chunk = ByteBuffer.allocate(chunkSize);
+				int read = 0;
+				while(chunk.hasRemaining()) {
+					read = channel.read(chunk);
+					if(read < 0) break;
+				}
+				if(read < 0) close();
+				chunk.flip();
+				if(chunk.hasRemaining()) {
+					readyNext = chunk;
+				} else {
+					recycle(chunk);
+				}
+				return readyNext != null;
+			} catch(IOException e) {
+				throw(new UncheckedIOException(e));
+			}
+		};
+		public void remove() { throw(new UnsupportedOperationException()); };
+
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * A channel reading the chunks handed over by a PrefetchIterator, which hands every drained chunk back to the ChannelChunkIterator
+	 * they come from and cancels the PrefetchIterator when it is closed
+	 */
+	private static final class PrefetchChannel implements ReadableByteChannel {
+		private final PrefetchIterator<ByteBuffer> chunks;
+		private final ChannelChunkIterator source;
+		private ByteBuffer current = null;
+		private boolean open = true;
+
+		private PrefetchChannel(final PrefetchIterator<ByteBuffer> chunks, final ChannelChunkIterator source) {
+			this.chunks = chunks;
+			this.source = source;
+		}
+
+		public int read(final ByteBuffer dst) throws IOException {
+			if(!open) throw(new ClosedChannelException());
+			try {
+				while((current == null) || !current.hasRemaining()) {
+					if(current != null) {
+						source.recycle(current);
+						current = null;
+					}
+					if(!chunks.hasNext()) return -1;
+					current = chunks.next();
+				}
+			} catch(UncheckedIOException e) {
+				throw(e.getCause());
+			}
+			int n = Math.min(dst.remaining(), current.remaining());
+			int limit = current.limit();
+			current.limit(current.position() + n);
+			dst.put(current);
+			current.limit(limit);
+			return n;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		public void close() {
+			if(!open) return;
+			open = false;
+			current = null;
+			chunks.cancel();
+		}
 	}
 
 }
@@ -0,0 +1,128 @@
+package jfnlite.bench;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jfnlite.Fn;
+
+/**
+ * Measures chains of 1, 4 and 8 stages, built by nesting Fn.map / Fn.filter calls (pulled with an iterator or pushed with Fn.forEach),
+ * fused into a Fn.Pipeline, written as a java.util.stream pipeline, or written as a hand-written loop.
+ * Stages alternate between a map (adding one) and a filter (which keeps every element), so all chains yield the same number of elements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainDepthBenchmark {
+
+	private static final Fn.Function<Integer,Integer> increment = new Fn.Function<Integer,Integer>() {
+		public Integer apply(Integer i) { return i + 1; };
+	};
+
+	private static final Fn.Predicate<Integer> nonNegative = new Fn.Predicate<Integer>() {
+		public boolean test(Integer i) { return i >= 0; };
+	};
+
+	@Param({"10", "1000", "1000000"})
+	public int size;
+
+	@Param({"1", "4", "8"})
+	public int depth;
+
+	private Integer[] source;
+	private Iterable<Integer> nested;
+	private Fn.Pipeline<Integer> fused;
+
+	@Setup
+	public void setUp() {
+		source = new Integer[size];
+		for(int i = 0; i < size; i++) source[i] = i;
+		nested = Fn.iterableOf(source);
+		fused = Fn.pipeline(Fn.iterableOf(source));
+		for(int stage = 0; stage < depth; stage++) {
+			if(stage % 2 == 0) {
+				nested = Fn.map(nested, increment);
+				fused = fused.map(increment);
+			} else {
+				nested = Fn.filter(nested, nonNegative);
+				fused = fused.filter(nonNegative);
+			}
+		}
+	}
+
+	private static long sum(Iterator<Integer> iterator) {
+		long sum = 0;
+		while(iterator.hasNext()) sum += iterator.next();
+		return sum;
+	}
+
+	private static long push(Iterable<Integer> iterable) {
+		final long[] sumWrapper = {0};
+		Fn.forEach(iterable, new Fn.Consumer<Integer>() {
+			public void accept(Integer i) { sumWrapper[0] += i; };
+		});
+		return sumWrapper[0];
+	}
+
+	@Benchmark
+	public long nestedPull() {
+		return sum(nested.iterator());
+	}
+
+	@Benchmark
+	public long nestedPush() {
+		return push(nested);
+	}
+
+	@Benchmark
+	public long pipelinePull() {
+		return sum(fused.iterator());
+	}
+
+	@Benchmark
+	public long pipelinePush() {
+		return push(fused);
+	}
+
+	@Benchmark
+	public long stream() {
+		Stream<Integer> stream = Arrays.stream(source);
+		for(int stage = 0; stage < depth; stage++) {
+			stream = (stage % 2 == 0) ? stream.map(i -> i + 1) : stream.filter(i -> i >= 0);
+		}
+		return stream.mapToLong(Integer::longValue).sum();
+	}
+
+	@Benchmark
+	public long loop() {
+		long sum = 0;
+		element:
+		for(Integer i: source) {
+			for(int stage = 0; stage < depth; stage++) {
+				if(stage % 2 == 0) {
+					i = increment.apply(i);
+				} else if(!nonNegative.test(i)) {
+					continue element;
+				}
+			}
+			sum += i;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,116 @@
+package jfnlite.bench;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jfnlite.Fn;
+
+/**
+ * Measures the time to count the lines of a file containing "ERROR", reading it with BufferedReader.readLine,
+ * with Fn.records (chunks read into a direct buffer) with 64K and 1M buffers, and with Fn.mappedLines.
+ * The file has lines of 20 to 200 ASCII characters and is written once per trial (1 GB by default, use -p sizeMb=64 for a quick run).
+ * As the file is read many times, it is usually in the page cache, so this measures the cost of splitting and inspecting the lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileReadBenchmark {
+
+	private static final String ERROR = "ERROR";
+
+	private static final Fn.Predicate<Fn.ByteSlice> isError = new Fn.Predicate<Fn.ByteSlice>() {
+		public boolean test(Fn.ByteSlice line) {
+			return line.contains(ERROR);
+		};
+	};
+
+	@Param({"1024"})
+	public int sizeMb;
+
+	private File file;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = File.createTempFile("jfnlite-bench", ".log");
+		file.deleteOnExit();
+		Random random = new Random(42);
+		long size = ((long) sizeMb) << 20;
+		byte[] line = new byte[201];
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try {
+			for(long written = 0; written < size; ) {
+				int length = 20 + random.nextInt(181);
+				for(int i = 0; i < length; i++) line[i] = (byte) ('a' + random.nextInt(26));
+				if(random.nextInt(100) == 0) System.arraycopy(ERROR.getBytes("US-ASCII"), 0, line, random.nextInt(length - ERROR.length()), ERROR.length());
+				line[length] = '\n';
+				out.write(line, 0, length + 1);
+				written += length + 1;
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static long count(Iterable<Fn.ByteSlice> lines) {
+		long count = 0;
+		for(Fn.ByteSlice line : Fn.filter(lines, isError)) count++;
+		return count;
+	}
+
+	@Benchmark
+	public long bufferedReader() throws IOException {
+		long count = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.contains(ERROR)) count++;
+			}
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public long records64K() {
+		return count(Fn.records(file, (byte) '\n', 1 << 16));
+	}
+
+	@Benchmark
+	public long records1M() {
+		return count(Fn.records(file, (byte) '\n', 1 << 20));
+	}
+
+	@Benchmark
+	public long mappedLines() {
+		return count(Fn.mappedLines(file));
+	}
+}
@@ -0,0 +1,206 @@
+package jfnlite.bench;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jfnlite.Fn;
+
+/**
+ * Measures every Fn operator over sources of 10, 1K and 1M elements, against a hand-written loop and java.util.stream doing the same work.
+ * Each invocation consumes the whole source, so divide by size to get the figures per element (including gc.alloc.rate.norm with -prof gc).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperatorBenchmark {
+
+	/**
+	 * The size of the chunks of the source flattened by the flatten benchmarks
+	 */
+	private static final int CHUNK_SIZE = 100;
+
+	private static final Fn.Function<Integer,Integer> increment = new Fn.Function<Integer,Integer>() {
+		public Integer apply(Integer i) { return i + 1; };
+	};
+
+	private static final Fn.Predicate<Integer> even = new Fn.Predicate<Integer>() {
+		public boolean test(Integer i) { return (i & 1) == 0; };
+	};
+
+	private static final Fn.BiFunction<Long,Integer,Long> add = new Fn.BiFunction<Long,Integer,Long>() {
+		public Long apply(Long sum, Integer i) { return sum + i; };
+	};
+
+	@Param({"10", "1000", "1000000"})
+	public int size;
+
+	private Integer[] source;
+	private Integer[] firstHalf;
+	private Integer[] secondHalf;
+	private List<Iterable<Integer>> chunks;
+	private List<List<Integer>> chunkLists;
+
+	@Setup
+	public void setUp() {
+		source = new Integer[size];
+		for(int i = 0; i < size; i++) source[i] = i;
+		firstHalf = Arrays.copyOfRange(source, 0, size / 2);
+		secondHalf = Arrays.copyOfRange(source, size / 2, size);
+		chunks = new ArrayList<Iterable<Integer>>();
+		chunkLists = new ArrayList<List<Integer>>();
+		for(int from = 0; from < size; from += CHUNK_SIZE) {
+			Integer[] chunk = Arrays.copyOfRange(source, from, Math.min(from + CHUNK_SIZE, size));
+			chunks.add(Fn.iterableOf(chunk));
+			chunkLists.add(Arrays.asList(chunk));
+		}
+	}
+
+	private static long sum(Iterator<Integer> iterator) {
+		long sum = 0;
+		while(iterator.hasNext()) sum += iterator.next();
+		return sum;
+	}
+
+	@Benchmark
+	public long iteratorOfFn() {
+		return sum(Fn.iteratorOf(source));
+	}
+
+	@Benchmark
+	public long iteratorOfLoop() {
+		long sum = 0;
+		for(Integer i: source) sum += i;
+		return sum;
+	}
+
+	@Benchmark
+	public long iteratorOfStream() {
+		return Arrays.stream(source).mapToLong(Integer::longValue).sum();
+	}
+
+	@Benchmark
+	public long mapFn() {
+		return sum(Fn.map(Fn.iteratorOf(source), increment));
+	}
+
+	@Benchmark
+	public long mapLoop() {
+		long sum = 0;
+		for(Integer i: source) sum += increment.apply(i);
+		return sum;
+	}
+
+	@Benchmark
+	public long mapStream() {
+		return Arrays.stream(source).map(i -> i + 1).mapToLong(Integer::longValue).sum();
+	}
+
+	@Benchmark
+	public long filterFn() {
+		return sum(Fn.filter(Fn.iteratorOf(source), even));
+	}
+
+	@Benchmark
+	public long filterLoop() {
+		long sum = 0;
+		for(Integer i: source) {
+			if(even.test(i)) sum += i;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long filterStream() {
+		return Arrays.stream(source).filter(i -> (i & 1) == 0).mapToLong(Integer::longValue).sum();
+	}
+
+	@Benchmark
+	public long reduceFn() {
+		return Fn.reduce(Fn.iterableOf(source), 0L, add);
+	}
+
+	@Benchmark
+	public long reduceLoop() {
+		Long sum = 0L;
+		for(Integer i: source) sum = add.apply(sum, i);
+		return sum;
+	}
+
+	@Benchmark
+	public long reduceStream() {
+		return Arrays.stream(source).reduce(0L, (sum, i) -> sum + i, Long::sum);
+	}
+
+	@Benchmark
+	public long flattenFn() {
+		return sum(Fn.flatten(chunks).iterator());
+	}
+
+	@Benchmark
+	public long flattenLoop() {
+		long sum = 0;
+		for(List<Integer> chunk: chunkLists) {
+			for(Integer i: chunk) sum += i;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long flattenStream() {
+		return chunkLists.stream().flatMap(List::stream).mapToLong(Integer::longValue).sum();
+	}
+
+	@Benchmark
+	public long concatFn() {
+		return sum(Fn.concat(Fn.iteratorOf(firstHalf), Fn.iteratorOf(secondHalf)));
+	}
+
+	@Benchmark
+	public long concatLoop() {
+		long sum = 0;
+		for(Integer i: firstHalf) sum += i;
+		for(Integer i: secondHalf) sum += i;
+		return sum;
+	}
+
+	@Benchmark
+	public long concatStream() {
+		return Stream.concat(Arrays.stream(firstHalf), Arrays.stream(secondHalf)).mapToLong(Integer::longValue).sum();
+	}
+
+	@Benchmark
+	public List<Integer> collectToListFn() {
+		return Fn.collectToList(Fn.map(Fn.iterableOf(source), increment));
+	}
+
+	@Benchmark
+	public List<Integer> collectToListLoop() {
+		List<Integer> list = new ArrayList<Integer>();
+		for(Integer i: source) list.add(increment.apply(i));
+		return list;
+	}
+
+	@Benchmark
+	public List<Integer> collectToListStream() {
+		return Arrays.stream(source).map(i -> i + 1).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,91 @@
+package jfnlite.bench;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jfnlite.Fn;
+
+/**
+ * Measures the throughput of a CPU-bound function over 10K elements applied by the sequential Fn.map,
+ * and by Fn.parallelMap (ordered) and Fn.parallelMapUnordered with 1, 4 and 16 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelMapBenchmark {
+
+	private static final int SIZE = 10000;
+	private static final int WORK_PER_ELEMENT = 2000;
+
+	/**
+	 * A function spending a few microseconds of CPU per element
+	 */
+	private static final Fn.Function<Integer,Long> work = new Fn.Function<Integer,Long>() {
+		public Long apply(Integer seed) {
+			long x = seed;
+			for(int i = 0; i < WORK_PER_ELEMENT; i++) {
+				x ^= x << 13;
+				x ^= x >>> 7;
+				x ^= x << 17;
+			}
+			return x;
+		};
+	};
+
+	@Param({"1", "4", "16"})
+	public int threads;
+
+	private Iterable<Integer> iterable;
+	private ExecutorService executor;
+
+	@Setup
+	public void setUp() {
+		Integer[] source = new Integer[SIZE];
+		for(int i = 0; i < SIZE; i++) source[i] = i;
+		iterable = Fn.iterableOf(source);
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	private static long sum(Iterator<Long> iterator) {
+		long sum = 0;
+		while(iterator.hasNext()) sum += iterator.next();
+		return sum;
+	}
+
+	@Benchmark
+	public long sequential() {
+		return sum(Fn.map(iterable.iterator(), work));
+	}
+
+	@Benchmark
+	public long ordered() {
+		return sum(Fn.parallelMap(iterable.iterator(), work, executor, threads * 4));
+	}
+
+	@Benchmark
+	public long unordered() {
+		return sum(Fn.parallelMapUnordered(iterable.iterator(), work, executor, threads * 4));
+	}
+}
@@ -0,0 +1,83 @@
+package jfnlite.bench;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jfnlite.Fn;
+
+/**
+ * Measures a full scan of 1M elements through map, filter, flatten and concat, either pulling the elements
+ * with hasNext()/next() (external iteration) or pushing them with Fn.forEach (internal iteration).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushPullBenchmark {
+
+	private static final int SIZE = 1000000;
+
+	private static final Fn.Function<Integer,Integer> increment = new Fn.Function<Integer,Integer>() {
+		public Integer apply(Integer i) { return i + 1; };
+	};
+
+	private static final Fn.Predicate<Integer> even = new Fn.Predicate<Integer>() {
+		public boolean test(Integer i) { return (i & 1) == 0; };
+	};
+
+	@Param({"map", "filter", "mapFilterMap", "flatten", "concat"})
+	public String operator;
+
+	private Iterable<Integer> iterable;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		Integer[] source = new Integer[SIZE];
+		for(int i = 0; i < SIZE; i++) source[i] = i;
+		Iterable<Integer> firstHalf = Fn.iterableOf(Arrays.copyOfRange(source, 0, SIZE / 2));
+		Iterable<Integer> secondHalf = Fn.iterableOf(Arrays.copyOfRange(source, SIZE / 2, SIZE));
+		if(operator.equals("map")) {
+			iterable = Fn.map(Fn.iterableOf(source), increment);
+		} else if(operator.equals("filter")) {
+			iterable = Fn.filter(Fn.iterableOf(source), even);
+		} else if(operator.equals("mapFilterMap")) {
+			iterable = Fn.map(Fn.filter(Fn.map(Fn.iterableOf(source), increment), even), increment);
+		} else if(operator.equals("flatten")) {
+			iterable = Fn.flatten(Arrays.<Iterable<Integer>>asList(firstHalf, secondHalf));
+		} else {
+			iterable = Fn.concat(firstHalf, secondHalf);
+		}
+	}
+
+	@Benchmark
+	public long pull() {
+		long sum = 0;
+		Iterator<Integer> iterator = iterable.iterator();
+		while(iterator.hasNext()) sum += iterator.next();
+		return sum;
+	}
+
+	@Benchmark
+	public long push() {
+		final long[] sumWrapper = {0};
+		Fn.forEach(iterable, new Fn.Consumer<Integer>() {
+			public void accept(Integer i) { sumWrapper[0] += i; };
+		});
+		return sumWrapper[0];
+	}
+}